@@ -2,6 +2,7 @@ plugins {
   id("java")
   id("org.jetbrains.kotlin.jvm") version "1.7.20"
   id("org.jetbrains.intellij") version "1.13.1"
+  id("me.champeau.jmh") version "0.6.8"
 }
 
 group = "net.coderazzi"
@@ -17,10 +18,52 @@ intellij {
   version.set("2022.2.4")
   type.set("IC") // Target IDE Platform
 
-  plugins.set(listOf(/* Plugin Dependencies */))
+  // maven is an optional dependency, see maven-support.xml
+  plugins.set(listOf("java", "maven"))
+}
+
+// Benchmarks under src/jmh, run with ./gradlew jmh
+// Results (throughput, latency, allocation rate) are written to build/results/jmh/results.json
+jmh {
+  jmhVersion.set("1.36")
+  benchmarkMode.set(listOf("thrpt", "avgt"))
+  timeUnit.set("ms")
+  profilers.set(listOf("gc"))
+  fork.set(1)
+  warmupIterations.set(3)
+  iterations.set(5)
+  resultFormat.set("JSON")
+}
+
+// the benchmarks run the plugin code outside the IDE, but still need the platform classes
+configurations.named("jmhImplementation") {
+  extendsFrom(configurations.compileOnly.get())
+}
+
+// Headless refresh, run with: java -jar build/libs/aws_codeartifact_maven-<version>-cli.jar
+val cliJar by tasks.registering(Jar::class) {
+  group = "build"
+  description = "Assembles the jar to refresh tokens outside the IDE"
+  archiveClassifier.set("cli")
+  manifest {
+    attributes("Main-Class" to "net.coderazzi.aws_codeartifact_maven.cli.HeadlessRefresh")
+  }
+  from(sourceSets.main.get().output)
+  // outside the IDE, the plugin code only requires the platform utility classes (logging)
+  from(provider {
+    configurations.compileClasspath.get()
+      .filter { it.name.matches(Regex("(util|util_rt|util-8|annotations)(-[\\w.]+)?\\.jar")) }
+      .map { zipTree(it) }
+  })
+  exclude("META-INF/plugin.xml", "META-INF/*.SF", "META-INF/*.DSA", "META-INF/*.RSA")
+  duplicatesStrategy = DuplicatesStrategy.EXCLUDE
 }
 
 tasks {
+  assemble {
+    dependsOn(cliJar)
+  }
+
   // Set the JVM compatibility versions
   withType<JavaCompile> {
     sourceCompatibility = "17"
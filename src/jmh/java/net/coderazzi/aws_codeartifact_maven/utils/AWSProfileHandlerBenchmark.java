@@ -0,0 +1,59 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Access to the AWS config and credentials files, with the files unchanged or modified.
+ * The files are located using the user.home property: AWS_CONFIG_FILE and AWS_SHARED_CREDENTIALS_FILE
+ * must not be defined.
+ */
+@State(Scope.Benchmark)
+public class AWSProfileHandlerBenchmark {
+
+    @Param({"10", "1000", "20000"})
+    public int profiles;
+
+    private Path home;
+    private Path config;
+    private String profile;
+    private String userHome;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        home = Files.createTempDirectory("aws-benchmark");
+        BenchmarkFixtures.createAwsFiles(home, profiles);
+        config = home.resolve(".aws").resolve("config");
+        profile = BenchmarkFixtures.getProfile(profiles / 2 + 1);
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", home.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setProperty("user.home", userHome);
+        BenchmarkFixtures.delete(home);
+    }
+
+    @Benchmark
+    public Set<String> getProfiles() throws Exception {
+        return AWSProfileHandler.getProfiles();
+    }
+
+    @Benchmark
+    public Set<String> getProfilesModifiedFile() throws Exception {
+        BenchmarkFixtures.touch(config, ++counter);
+        return AWSProfileHandler.getProfiles();
+    }
+
+    @Benchmark
+    public Map<String, String> getProfileProperties() {
+        return AWSProfileHandler.getProfileProperties(profile);
+    }
+}
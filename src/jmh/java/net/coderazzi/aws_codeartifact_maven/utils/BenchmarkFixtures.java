@@ -0,0 +1,108 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Generated files and streams used by the benchmarks
+ */
+final class BenchmarkFixtures {
+
+    static final String USERNAME = "aws";
+    static final String MFA_PROMPT = "Enter MFA code for arn:aws:iam::123456789012:mfa/user: ";
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Returns a maven settings file with the given number of servers, half of them using the aws username
+     */
+    static Path createSettingsFile(Path directory, int servers) throws IOException {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<settings xmlns=\"http://maven.apache.org/SETTINGS/1.0.0\">\n")
+                .append("  <!-- generated for benchmarks -->\n")
+                .append("  <servers>\n");
+        for (int i = 0; i < servers; i++) {
+            sb.append("    <server>\n")
+                    .append("      <id>").append(getServerId(i)).append("</id>\n")
+                    .append("      <username>").append(i % 2 == 0 ? USERNAME : "user" + i).append("</username>\n")
+                    .append("      <password>").append("x".repeat(1024)).append("</password>\n")
+                    .append("    </server>\n");
+        }
+        sb.append("  </servers>\n</settings>\n");
+        Path ret = directory.resolve("settings.xml");
+        Files.writeString(ret, sb, StandardCharsets.UTF_8);
+        return ret;
+    }
+
+    static String getServerId(int i) {
+        return "codeartifact-server-" + i;
+    }
+
+    /**
+     * Creates the .aws/config and .aws/credentials files under the given home, with the given
+     * number of profiles, split between both files
+     */
+    static void createAwsFiles(Path home, int profiles) throws IOException {
+        Path aws = Files.createDirectories(home.resolve(".aws"));
+        StringBuilder config = new StringBuilder("[default]\nregion = eu-west-1\n\n");
+        StringBuilder credentials = new StringBuilder("[default]\naws_access_key_id = AKIADEFAULT\n"
+                + "aws_secret_access_key = secret\n\n");
+        for (int i = 0; i < profiles; i++) {
+            if (i % 4 == 0) {
+                credentials.append('[').append(getProfile(i)).append("]\n")
+                        .append("aws_access_key_id = AKIA").append(i).append('\n')
+                        .append("aws_secret_access_key = secret").append(i).append("\n\n");
+            } else {
+                config.append("[profile ").append(getProfile(i)).append("]\n")
+                        .append("# assumed role\n")
+                        .append("role_arn = arn:aws:iam::123456789012:role/role-").append(i).append('\n')
+                        .append("source_profile = default\n")
+                        .append("mfa_serial = arn:aws:iam::123456789012:mfa/user\n")
+                        .append("region = us-east-1\n\n");
+            }
+        }
+        Files.writeString(aws.resolve("config"), config, StandardCharsets.UTF_8);
+        Files.writeString(aws.resolve("credentials"), credentials, StandardCharsets.UTF_8);
+    }
+
+    static String getProfile(int i) {
+        return "profile-" + i;
+    }
+
+    /**
+     * Returns the output of an aws invocation: verbose lines, optionally followed by the MFA prompt
+     */
+    static byte[] createCliOutput(int size, boolean mfaPrompt) {
+        String line = "2024-11-17 23:09:47,123 - MainThread - botocore.hooks - DEBUG - Event choose-signer: calling\n";
+        StringBuilder sb = new StringBuilder(size + MFA_PROMPT.length());
+        while (sb.length() + line.length() <= size) {
+            sb.append(line);
+        }
+        if (mfaPrompt) {
+            sb.append(MFA_PROMPT);
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Changes the modification time of the file, so that the caches consider it modified
+     */
+    static void touch(Path file, long counter) throws IOException {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1_000_000_000_000L + counter * 1000));
+    }
+
+    static void delete(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
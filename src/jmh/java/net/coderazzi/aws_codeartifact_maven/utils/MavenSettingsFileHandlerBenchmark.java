@@ -0,0 +1,66 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Access to the maven settings file: server ids lookup, with the file unchanged or modified,
+ * and the password update, that writes the file
+ */
+@State(Scope.Benchmark)
+public class MavenSettingsFileHandlerBenchmark {
+
+    @Param({"1", "100", "1000", "5000"})
+    public int servers;
+
+    private Path directory;
+    private Path settings;
+    private String serverId;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("settings-benchmark");
+        settings = BenchmarkFixtures.createSettingsFile(directory, servers);
+        serverId = BenchmarkFixtures.getServerId(servers / 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFixtures.delete(directory);
+    }
+
+    @Benchmark
+    public Set<String> getServerIds() throws Exception {
+        return new MavenSettingsFileHandler(settings.toString()).getServerIds(BenchmarkFixtures.USERNAME);
+    }
+
+    @Benchmark
+    public Set<String> getServerIdsModifiedFile() throws Exception {
+        BenchmarkFixtures.touch(settings, ++counter);
+        return new MavenSettingsFileHandler(settings.toString()).getServerIds(BenchmarkFixtures.USERNAME);
+    }
+
+    @Benchmark
+    public String locateServer() throws Exception {
+        MavenSettingsFileHandler handler = new MavenSettingsFileHandler(settings.toString());
+        handler.locateServers(List.of(serverId));
+        return handler.getPassword(serverId);
+    }
+
+    /**
+     * The password changes on each invocation, so the file is written every time
+     */
+    @Benchmark
+    public void updatePassword() throws Exception {
+        MavenSettingsFileHandler handler = new MavenSettingsFileHandler(settings.toString());
+        handler.locateServers(List.of(serverId));
+        handler.updatePassword(serverId, "token-" + (++counter));
+        handler.flush();
+    }
+}
@@ -0,0 +1,34 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Collection of the aws cli output, as verbose error output, with or without a final MFA prompt
+ */
+@State(Scope.Benchmark)
+public class ProcessReaderBenchmark {
+
+    private static final int CAPACITY = 64 * 1024;
+
+    @Param({"1024", "262144", "16777216"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean mfaPrompt;
+
+    private byte[] output;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        output = BenchmarkFixtures.createCliOutput(size, mfaPrompt);
+    }
+
+    @Benchmark
+    public String readOutput(Blackhole blackhole) {
+        ProcessReader reader = new ProcessReader(new ByteArrayInputStream(output), CAPACITY, blackhole::consume);
+        return reader.getOutput();
+    }
+}
@@ -0,0 +1,144 @@
+package net.coderazzi.aws_codeartifact_maven.cli;
+
+import net.coderazzi.aws_codeartifact_maven.state.AwsConfiguration;
+import net.coderazzi.aws_codeartifact_maven.state.Configuration;
+import net.coderazzi.aws_codeartifact_maven.utils.OperationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Plugin state, as stored by the IDE in the file aws_codeartifact_maven.xml (in the options directory,
+ * or in an exported settings archive). It is read without the IDE, so only the fields relevant to
+ * the token generation are considered.
+ */
+class ExportedState {
+
+    private static final String COMPONENT_NAME = "aws_codeartifact_maven.state";
+
+    final Path path;
+    final Map<String, AwsConfiguration> configurations = new TreeMap<>();
+    String mavenSettingsFile;
+    String awsPath = Configuration.DEFAULT_AWS_CLI_PATH;
+    boolean nativeClient;
+    String endpointUrl = "";
+    int parallelGenerations = Configuration.DEFAULT_PARALLEL_GENERATIONS;
+    int connectTimeoutSeconds = Configuration.DEFAULT_CONNECT_TIMEOUT_SECONDS;
+    int requestTimeoutSeconds = Configuration.DEFAULT_REQUEST_TIMEOUT_SECONDS;
+
+    private ExportedState(Path path) {
+        this.path = path;
+        String home = System.getProperty("user.home");
+        mavenSettingsFile = home == null ? "" : Paths.get(home).resolve(".m2").resolve("settings.xml").toString();
+    }
+
+    static ExportedState read(Path path) throws OperationException {
+        Document document;
+        try {
+            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+            dbFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            document = dbFactory.newDocumentBuilder().parse(path.toFile());
+        } catch (ParserConfigurationException | SAXException ex) {
+            throw new OperationException("XML parsing error in %s: %s", path, ex.getMessage());
+        } catch (IOException ex) {
+            throw new OperationException("Error accessing %s: %s", path, ex.getMessage());
+        }
+        Element component = findComponent(document.getDocumentElement());
+        if (component == null) {
+            throw new OperationException("No plugin configuration found in %s", path);
+        }
+        ExportedState ret = new ExportedState(path);
+        for (Element option : getChildElements(component, "option")) {
+            String value = option.getAttribute("value");
+            switch (option.getAttribute("name")) {
+                case "mavenSettingsFile" -> ret.mavenSettingsFile = value;
+                case "awsPath" -> ret.awsPath = value;
+                case "nativeClient" -> ret.nativeClient = Boolean.parseBoolean(value);
+                case "endpointUrl" -> ret.endpointUrl = value;
+                case "parallelGenerations" -> ret.parallelGenerations = parseInt(value, ret.parallelGenerations);
+                case "connectTimeoutSeconds" -> ret.connectTimeoutSeconds = parseInt(value, ret.connectTimeoutSeconds);
+                case "requestTimeoutSeconds" -> ret.requestTimeoutSeconds = parseInt(value, ret.requestTimeoutSeconds);
+                case "awsConfigurations" -> readConfigurations(option, ret.configurations);
+                default -> {
+                    // not used outside the IDE
+                }
+            }
+        }
+        if (ret.configurations.isEmpty()) {
+            throw new OperationException("No configurations found in %s", path);
+        }
+        return ret;
+    }
+
+    private static Element findComponent(Element element) {
+        if ("component".equals(element.getTagName()) && COMPONENT_NAME.equals(element.getAttribute("name"))) {
+            return element;
+        }
+        for (Element child : getChildElements(element, null)) {
+            Element ret = findComponent(child);
+            if (ret != null) {
+                return ret;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Configurations are stored as map/entry[key]/value/AwsConfiguration/option
+     */
+    private static void readConfigurations(Element option, Map<String, AwsConfiguration> configurations) {
+        for (Element map : getChildElements(option, "map")) {
+            for (Element entry : getChildElements(map, "entry")) {
+                AwsConfiguration configuration = new AwsConfiguration();
+                for (Element value : getChildElements(entry, "value")) {
+                    for (Element bean : getChildElements(value, "AwsConfiguration")) {
+                        for (Element field : getChildElements(bean, "option")) {
+                            String fieldValue = field.getAttribute("value");
+                            switch (field.getAttribute("name")) {
+                                case "mavenServerId" -> configuration.mavenServerId = fieldValue;
+                                case "profile" -> configuration.profile = fieldValue;
+                                case "region" -> configuration.region = fieldValue;
+                                case "domain" -> configuration.domain = fieldValue;
+                                case "domainOwner" -> configuration.domainOwner = fieldValue;
+                                case "enabled" -> configuration.enabled = Boolean.parseBoolean(fieldValue);
+                                default -> {
+                                    // unknown field, from a newer version
+                                }
+                            }
+                        }
+                    }
+                }
+                configurations.put(entry.getAttribute("key"), configuration);
+            }
+        }
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    private static List<Element> getChildElements(Element parent, String name) {
+        List<Element> ret = new ArrayList<>();
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element element && (name == null || name.equals(element.getTagName()))) {
+                ret.add(element);
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,300 @@
+package net.coderazzi.aws_codeartifact_maven.cli;
+
+import net.coderazzi.aws_codeartifact_maven.state.AwsConfiguration;
+import net.coderazzi.aws_codeartifact_maven.state.Configuration;
+import net.coderazzi.aws_codeartifact_maven.state.GeneratedToken;
+import net.coderazzi.aws_codeartifact_maven.utils.AWSInvoker;
+import net.coderazzi.aws_codeartifact_maven.utils.AuthTokenInvoker;
+import net.coderazzi.aws_codeartifact_maven.utils.OperationException;
+import net.coderazzi.aws_codeartifact_maven.utils.PluginExecutor;
+import net.coderazzi.aws_codeartifact_maven.utils.TokenGenerator;
+
+import java.io.Console;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+
+/**
+ * Refreshes the tokens outside the IDE, for the configurations in one or more exported plugin states.
+ * Each configuration is reported with its status code and timing; the exit code is the highest status code.
+ */
+public class HeadlessRefresh implements AWSInvoker.BackgroundController {
+
+    enum Status {
+        GENERATED(0), FAILED(1), CANCELLED(2);
+
+        Status(int code) {
+            this.code = code;
+        }
+
+        final int code;
+    }
+
+    private static final int EXIT_USAGE = 3;
+    private static final String USAGE = String.join("\n",
+            "Usage: java -jar aws_codeartifact_maven-cli.jar [options] STATE_FILE...",
+            "",
+            "Refreshes the CodeArtifact auth tokens in the maven settings files.",
+            "STATE_FILE is the plugin state, aws_codeartifact_maven.xml, found in the IDE options directory",
+            "or in an exported IDE settings archive. All its enabled configurations are refreshed.",
+            "",
+            "Options:",
+            "  --settings FILE        maven settings file to update, instead of the one in the state file;",
+            "                         can be repeated to update several files",
+            "  --configuration NAME   configuration to refresh, even if not enabled; can be repeated",
+            "  --parallel N           maximum number of configurations refreshed at once, up to "
+                    + Configuration.MAX_PARALLEL_GENERATIONS,
+            "  --aws PATH             aws cli to use, instead of the one in the state file",
+            "",
+            "Status codes: 0 generated, 1 failed, 2 cancelled. Exit code: highest status code, "
+                    + EXIT_USAGE + " on invalid arguments.");
+
+    /**
+     * Configuration to refresh, in a given settings file
+     */
+    private static class Job {
+        final String name;
+        final AwsConfiguration configuration;
+        final Batch batch;
+        Status status;
+        String message = "";
+        long elapsedMs;
+
+        Job(String name, AwsConfiguration configuration, Batch batch) {
+            this.name = name;
+            this.configuration = configuration;
+            this.batch = batch;
+        }
+    }
+
+    /**
+     * Configurations of a state file that update the same settings file: it is read and written once
+     */
+    private static class Batch {
+        final String settingsFile;
+        final TokenGenerator generator;
+        final List<Job> jobs = new ArrayList<>();
+
+        Batch(String settingsFile, TokenGenerator generator) {
+            this.settingsFile = settingsFile;
+            this.generator = generator;
+        }
+    }
+
+    private final Set<Runnable> cancelListeners = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    public static void main(String[] args) {
+        PluginExecutor.setStandalone();
+        List<Path> stateFiles = new ArrayList<>();
+        Set<String> settingsFiles = new LinkedHashSet<>();
+        Set<String> names = new LinkedHashSet<>();
+        Integer parallel = null;
+        String awsPath = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--settings" -> settingsFiles.add(getArgument(args, ++i));
+                    case "--configuration" -> names.add(getArgument(args, ++i));
+                    case "--parallel" -> parallel = Integer.parseInt(getArgument(args, ++i));
+                    case "--aws" -> awsPath = getArgument(args, ++i);
+                    case "-h", "--help" -> {
+                        System.out.println(USAGE);
+                        System.exit(0);
+                    }
+                    default -> {
+                        if (args[i].startsWith("-")) {
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        }
+                        stateFiles.add(Paths.get(args[i]));
+                    }
+                }
+            }
+            if (stateFiles.isEmpty()) {
+                throw new IllegalArgumentException("No state file given");
+            }
+            if (parallel != null && parallel < 1) {
+                throw new IllegalArgumentException("Invalid parallelism " + parallel);
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(EXIT_USAGE);
+        }
+        List<ExportedState> states = new ArrayList<>();
+        for (Path path : stateFiles) {
+            try {
+                states.add(ExportedState.read(path));
+            } catch (OperationException ex) {
+                System.err.println(ex.getMessage());
+                System.exit(EXIT_USAGE);
+            }
+        }
+        HeadlessRefresh refresh = new HeadlessRefresh();
+        Runtime.getRuntime().addShutdownHook(new Thread(refresh::cancel));
+        System.exit(refresh.run(states, settingsFiles, names, awsPath,
+                parallel != null ? parallel : states.get(0).parallelGenerations, System.out));
+    }
+
+    private static String getArgument(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    /**
+     * Refreshes the tokens, printing the report, and returns the exit code
+     */
+    int run(List<ExportedState> states, Set<String> settingsFiles, Set<String> names, String awsPath,
+            int parallel, PrintStream out) {
+        long start = System.nanoTime();
+        List<Batch> batches = createBatches(states, settingsFiles, names, awsPath);
+        List<Job> jobs = batches.stream().flatMap(batch -> batch.jobs.stream()).collect(Collectors.toList());
+        if (jobs.isEmpty()) {
+            out.println("No configurations to refresh");
+            return EXIT_USAGE;
+        }
+        // same limit as in the IDE, whatever the option or the state file say
+        Executor executor = PluginExecutor.getInstance().createBoundedExecutor("headless refresh",
+                Math.max(1, Math.min(Configuration.MAX_PARALLEL_GENERATIONS, parallel)));
+        CompletableFuture.allOf(jobs.stream().map(job -> CompletableFuture.runAsync(() -> generate(job), executor))
+                .toArray(CompletableFuture[]::new)).join();
+        // flushed one after the other: batches can share the settings file
+        for (Batch batch : batches) {
+            flush(batch);
+        }
+        int ret = 0;
+        for (Job job : jobs) {
+            out.printf("%d %-9s %7d ms  %s  %s%s%n", job.status.code, job.status.name().toLowerCase(), job.elapsedMs,
+                    job.batch.settingsFile, job.name, job.message.isEmpty() ? "" : ": " + job.message);
+            ret = Math.max(ret, job.status.code);
+        }
+        out.printf("%d configurations in %d ms%n", jobs.size(), (System.nanoTime() - start) / 1_000_000);
+        return ret;
+    }
+
+    private List<Batch> createBatches(List<ExportedState> states, Set<String> settingsFiles, Set<String> names,
+                                      String awsPath) {
+        List<Batch> ret = new ArrayList<>();
+        for (ExportedState state : states) {
+            Map<String, AwsConfiguration> selected = new LinkedHashMap<>();
+            state.configurations.forEach((name, configuration) -> {
+                if (names.isEmpty() ? configuration.enabled : names.contains(name)) {
+                    selected.put(name, configuration);
+                }
+            });
+            AuthTokenInvoker invoker = TokenGenerator.createInvoker(awsPath == null ? state.awsPath : awsPath,
+                    state.nativeClient, state.endpointUrl, state.connectTimeoutSeconds, state.requestTimeoutSeconds,
+                    null);
+            for (String settingsFile : settingsFiles.isEmpty() ? Set.of(state.mavenSettingsFile) : settingsFiles) {
+                // no token information is kept between runs: tokens are always requested
+                Batch batch = new Batch(settingsFile, new TokenGenerator(settingsFile, invoker,
+                        new TokenGenerator.GeneratedTokens() {
+                            @Override
+                            public GeneratedToken getGeneratedToken(String configurationName) {
+                                return null;
+                            }
+
+                            @Override
+                            public void setGeneratedToken(String configurationName, GeneratedToken token) {
+                            }
+                        }, Long.MAX_VALUE));
+                selected.forEach((name, configuration) -> batch.jobs.add(new Job(name, configuration, batch)));
+                batch.generator.startBatch(selected.values().stream().map(configuration -> configuration.mavenServerId)
+                        .filter(Objects::nonNull).collect(Collectors.toSet()));
+                ret.add(batch);
+            }
+        }
+        return ret;
+    }
+
+    private void generate(Job job) {
+        long start = System.nanoTime();
+        try {
+            TokenGenerator.Result result = job.batch.generator.generate(job.name, job.configuration, this,
+                    phase -> { });
+            job.status = result.outcome == TokenGenerator.Outcome.CANCELLED ? Status.CANCELLED : Status.GENERATED;
+        } catch (OperationException ex) {
+            job.status = Status.FAILED;
+            job.message = ex.getMessage();
+        } catch (RuntimeException ex) {
+            // unexpected, but the job must be still reported
+            job.status = Status.FAILED;
+            job.message = ex.toString();
+        }
+        job.elapsedMs = (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private void flush(Batch batch) {
+        long start = System.nanoTime();
+        String error = null;
+        try {
+            batch.generator.flush();
+        } catch (OperationException ex) {
+            error = ex.getMessage();
+        } catch (RuntimeException ex) {
+            error = ex.toString();
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        for (Job job : batch.jobs) {
+            if (job.status == Status.GENERATED) {
+                job.elapsedMs += elapsedMs;
+                if (error != null) {
+                    job.status = Status.FAILED;
+                    job.message = error;
+                }
+            }
+        }
+    }
+
+    private void cancel() {
+        cancelled = true;
+        cancelListeners.forEach(Runnable::run);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * MFA codes can only be provided if running on a console, one request at a time
+     */
+    @Override
+    public synchronized String requestMfaCode(String request) throws OperationException {
+        Console console = System.console();
+        if (console == null) {
+            throw new OperationException("MFA code required, but no console available: " + request.trim());
+        }
+        String ret = console.readLine("%s", request);
+        if (ret == null || ret.isBlank()) {
+            throw new OperationException("No MFA code provided");
+        }
+        return ret.trim();
+    }
+
+    @Override
+    public void addCancelListener(Runnable listener) {
+        cancelListeners.add(listener);
+        if (cancelled) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public void removeCancelListener(Runnable listener) {
+        cancelListeners.remove(listener);
+    }
+}
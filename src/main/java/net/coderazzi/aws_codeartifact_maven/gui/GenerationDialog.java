@@ -1,29 +1,45 @@
 package net.coderazzi.aws_codeartifact_maven.gui;
 
-import com.intellij.icons.AllIcons;
-import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.*;
+import com.intellij.ui.ScrollPaneFactory;
 import com.intellij.ui.components.JBLabel;
+import com.intellij.ui.table.JBTable;
 import com.intellij.util.ui.UIUtil;
+import net.coderazzi.aws_codeartifact_maven.gui.GenerationStatusModel.Row;
+import net.coderazzi.aws_codeartifact_maven.gui.GenerationStatusModel.TaskState;
+import net.coderazzi.aws_codeartifact_maven.services.TokenRefreshService;
 import net.coderazzi.aws_codeartifact_maven.state.AwsConfiguration;
+import net.coderazzi.aws_codeartifact_maven.state.GenerationRun;
 import net.coderazzi.aws_codeartifact_maven.utils.AWSInvoker;
-import net.coderazzi.aws_codeartifact_maven.utils.MavenSettingsFileHandler;
+import net.coderazzi.aws_codeartifact_maven.utils.AWSProfileHandler;
 import net.coderazzi.aws_codeartifact_maven.utils.MfaCodeValidator;
 import net.coderazzi.aws_codeartifact_maven.utils.OperationException;
+import net.coderazzi.aws_codeartifact_maven.utils.PluginExecutor;
+import net.coderazzi.aws_codeartifact_maven.utils.TimeoutOperationException;
+import net.coderazzi.aws_codeartifact_maven.utils.TokenGenerator;
+import net.coderazzi.aws_codeartifact_maven.utils.TokenPrefetch;
 import net.coderazzi.aws_codeartifact_maven.state.Configuration;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import javax.swing.Timer;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableRowSorter;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.util.*;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 import static com.intellij.util.ui.JBUI.Borders.empty;
 
@@ -32,32 +48,46 @@ class GenerationDialog extends DialogWrapper implements AWSInvoker.BackgroundCon
 
     public static final String BACK_TEXT = "Back";
 
-    private static class ConfigurationRow {
-        final AwsConfiguration configuration;
-        JBLabel message;
-        ConfigurationRow(AwsConfiguration configuration) { this.configuration = configuration; }
-    }
-
-    final private static int MAX_ERROR_MESSAGE = 34;
-    final private static long ARTIFICIAL_WAIT_MS = 100;
+    final private static String ALL_STATES = "All";
+    final private static int MAX_VISIBLE_ROWS = 20;
+    final private static int[] COLUMN_WIDTHS = {140, 160, 120, 300, 120};
+    final private static int UPDATE_INTERVAL_MS = 40;
+    final private static long MIN_DISPLAY_MS = 100;
     private final Project project;
-    private final String mavenSettingsFile;
-    private final String awsPath;
-    private final Map<String, ConfigurationRow> configurations = new TreeMap<>();
+    private final TokenGenerator generator;
+    private final GenerationStatusModel model = new GenerationStatusModel();
+    private final Map<String, Row> configurations = new TreeMap<>();
+    private final List<Row> pendingUpdates = new ArrayList<>();
+    /**
+     * Status changes published by the generation threads, without blocking, and applied in batches in
+     * the event dispatch thread by the updates timer. Only the last change per configuration is kept
+     */
+    private final Map<Row, StatusUpdate> pendingStatus = new LinkedHashMap<>();
+    private final Map<Row, GenerationRun> pendingTimings = new LinkedHashMap<>();
+    private final Timer updatesTimer = new Timer(UPDATE_INTERVAL_MS, x -> applyUpdates());
+    private final Set<Runnable> cancelListeners = ConcurrentHashMap.newKeySet();
     private final boolean isGenerateForAll;
-    private volatile boolean  cancelled;
+    private final int parallelGenerations;
+    private volatile boolean  cancelled, disposed;
     private boolean completed, closeDialog;
+    private boolean updatesScheduled; // guarded by pendingStatus
 
     public GenerationDialog(final Project project,
-                            final Configuration state) {
+                            final Configuration state,
+                            final boolean forceRefresh,
+                            final @Nullable TokenPrefetch prefetch) {
         super(project, true); // use current window as parent
         this.project = project;
-        mavenSettingsFile = state.getMavenServerSettingsFile();
-        awsPath=state.getAWSPath();
+        generator = new TokenGenerator(state, forceRefresh ? Long.MAX_VALUE
+                : TimeUnit.MINUTES.toMillis(state.getRefreshThresholdMinutes()));
+        generator.setPrefetch(prefetch);
         isGenerateForAll = state.isGenerateForAll();
+        parallelGenerations = state.getParallelGenerations();
         for (String name : state.getConfigurationNames()) {
             if (isGenerateForAll || state.getConfigurationName().equals(name)) {
-                configurations.put(name, new ConfigurationRow(state.getConfiguration(name)));
+                AwsConfiguration configuration = state.getConfiguration(name);
+                configurations.put(name, model.addRow(name, configuration,
+                        configuration.enabled || !isGenerateForAll ? TaskState.WAITING : TaskState.DISABLED));
             }
         }
         init();
@@ -68,7 +98,7 @@ class GenerationDialog extends DialogWrapper implements AWSInvoker.BackgroundCon
         getWindow().addWindowListener(new WindowAdapter() {
             @Override
             public void windowOpened(WindowEvent e) {
-                ApplicationManager.getApplication().executeOnPooledThread(GenerationDialog.this::launch);
+                PluginExecutor.getInstance().submit("token generation", GenerationDialog.this::launch);
             }
         });
         getWindow().addWindowFocusListener(new WindowAdapter() {
@@ -83,12 +113,65 @@ class GenerationDialog extends DialogWrapper implements AWSInvoker.BackgroundCon
     }
 
     private void launch(){
-        boolean errors = false;
-        for (Map.Entry<String, ConfigurationRow> entry : configurations.entrySet()) {
-            errors = requestToken(entry.getKey(), entry.getValue().configuration) == TaskState.ERROR || errors;
+        AtomicBoolean errors = new AtomicBoolean();
+        Executor executor = PluginExecutor.getInstance().createBoundedExecutor(
+                "token generation", parallelGenerations);
+        // the settings file is read once, and written once with all the obtained tokens
+        generator.startBatch(configurations.values().stream()
+                .filter(row -> row.configuration.enabled || !isGenerateForAll)
+                .map(row -> row.configuration.mavenServerId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet()));
+        try {
+            // configurations sharing a profile are handled sequentially: their MFA requests cannot overlap
+            CompletableFuture.allOf(groupByProfile().stream().map(names -> CompletableFuture.runAsync(() -> {
+                for (String name : names) {
+                    if (requestToken(configurations.get(name)).failed) {
+                        errors.set(true);
+                    }
+                }
+            }, executor)).toArray(CompletableFuture[]::new)).get();
+        } catch (Exception ex) {
+            errors.set(true);
         }
+        updateSettingsFile(errors);
         completed = true;
-        generationComplete(errors);
+        generationComplete(errors.get());
+        TokenRefreshService.getInstance().reschedule();
+    }
+
+    /**
+     * Writes the tokens obtained for all configurations, even if the generation has been cancelled
+     */
+    private void updateSettingsFile(AtomicBoolean errors) {
+        List<Row> rows;
+        synchronized (pendingUpdates) {
+            rows = new ArrayList<>(pendingUpdates);
+        }
+        if (!rows.isEmpty()) {
+            try {
+                generator.flush();
+                rows.forEach(row -> setMessage(row, TaskState.COMPLETED, "Auth token generated"));
+            } catch (OperationException ex) {
+                rows.forEach(row -> setMessage(row, TaskState.ERROR, ex.getMessage()));
+                errors.set(true);
+            }
+        }
+    }
+
+    /**
+     * Returns the configuration names grouped by AWS profile, keeping the configurations order
+     */
+    private Collection<List<String>> groupByProfile() {
+        Map<String, List<String>> ret = new LinkedHashMap<>();
+        configurations.forEach((name, row) -> {
+            String profile = row.configuration.profile;
+            if (profile == null || profile.isBlank()) {
+                profile = AWSProfileHandler.DEFAULT_PROFILE;
+            }
+            ret.computeIfAbsent(profile, x -> new ArrayList<>()).add(name);
+        });
+        return ret.values();
     }
 
     private void generationComplete(final boolean withErrors){
@@ -105,68 +188,141 @@ class GenerationDialog extends DialogWrapper implements AWSInvoker.BackgroundCon
         });
     }
 
-    private TaskState requestToken(String name, AwsConfiguration configuration) {
+    private TaskState requestToken(Row row) {
         TaskState state = TaskState.RUNNING;
-        if (configuration.enabled || !isGenerateForAll) {
-            JLabel messageField = configurations.get(name).message;
+        if (row.configuration.enabled || !isGenerateForAll) {
             if (!cancelled) {
                 try {
-                    checkNotEmptyString(configuration.domain, "domain");
-                    checkNotEmptyString(configuration.domainOwner, "domainOwner");
-                    checkNotEmptyString(configuration.mavenServerId, "mavenServerId");
-                    setMessage(messageField, state, "Checking settings file");
-                    MavenSettingsFileHandler mavenSettingsFileHandler = new MavenSettingsFileHandler(mavenSettingsFile);
-                    mavenSettingsFileHandler.locateServer(configuration.mavenServerId);
-                    if (!cancelled) {
-                        setMessage(messageField, state, "Obtaining AWS Auth Token");
-                        String token = AWSInvoker.getAuthToken(configuration.domain, configuration.domainOwner,
-                                awsPath, configuration.profile, configuration.region, this);
-                        if (!cancelled) {
-                            setMessage(messageField, state, "Updating settings file");
-                            mavenSettingsFileHandler.setPassword(token);
-                            setMessage(messageField, state = TaskState.COMPLETED, "Auth token generated");
+                    TokenGenerator.Result result = generator.generate(row.name, row.configuration, this,
+                            new TokenGenerator.PhaseListener() {
+                                @Override
+                                public void phaseStarted(TokenGenerator.Phase phase) {
+                                    setMessage(row, TaskState.RUNNING, phase.description);
+                                }
+
+                                @Override
+                                public void generationCompleted(GenerationRun run) {
+                                    setTimings(row, run);
+                                }
+                            });
+                    if (result.outcome == TokenGenerator.Outcome.STILL_VALID) {
+                        setMessage(row, state = TaskState.COMPLETED, String.format("Still valid (expires in %s)",
+                                formatDuration(result.expiration - System.currentTimeMillis())));
+                    } else if (result.outcome == TokenGenerator.Outcome.GENERATED) {
+                        setMessage(row, state = TaskState.COMPLETED, "Auth token generated");
+                    } else if (result.outcome == TokenGenerator.Outcome.PENDING) {
+                        synchronized (pendingUpdates) {
+                            pendingUpdates.add(row);
                         }
+                        setMessage(row, TaskState.RUNNING, "Waiting to update settings file");
+                        return TaskState.RUNNING;
                     }
+                } catch (TimeoutOperationException tex) {
+                    setMessage(row, state = TaskState.TIMED_OUT, tex.getMessage());
                 } catch (OperationException iex) {
-                    setMessage(messageField, state = TaskState.ERROR, iex.getMessage());
+                    setMessage(row, state = TaskState.ERROR, iex.getMessage());
                 }
             }
             if (state == TaskState.RUNNING && cancelled) {
-                setMessage(messageField, state = TaskState.CANCELLED, "Cancelled");
+                setMessage(row, state = TaskState.CANCELLED, "Cancelled");
             }
         }
         return state;
     }
 
+    private static String formatDuration(long ms) {
+        long minutes = TimeUnit.MILLISECONDS.toMinutes(ms);
+        return minutes < 60 ? minutes + "m" : (minutes / 60) + "h";
+    }
 
-    private void setMessage(JLabel label, TaskState taskState, String message) {
-        // cannot use here ApplicationManager.getApplication().invokeLater, does nothing
-        try {
+    private void setTimings(Row row, GenerationRun run) {
+        synchronized (pendingStatus) {
+            pendingTimings.put(row, run);
+            scheduleUpdates();
+        }
+    }
+
+    private void setMessage(Row row, TaskState taskState, String message) {
+        synchronized (pendingStatus) {
+            pendingStatus.put(row, new StatusUpdate(taskState, message));
+            scheduleUpdates();
+        }
+    }
+
+    /**
+     * The updates timer only runs while there are published changes, and it is only started and stopped
+     * in the event dispatch thread. Called holding the pendingStatus lock
+     */
+    private void scheduleUpdates() {
+        if (!updatesScheduled) {
+            updatesScheduled = true;
             SwingUtilities.invokeLater(() -> {
-                label.setText(message.length() > MAX_ERROR_MESSAGE?
-                        message.substring(0, MAX_ERROR_MESSAGE) + "..." : message);
-                if (taskState.icon != label.getIcon()) {
-                    label.setIcon(taskState.icon);
-                    if (taskState == TaskState.ERROR) {
-                        label.addMouseListener(new MouseAdapter() {
-                            @Override
-                            public void mouseClicked(MouseEvent e) {
-                                Messages.showErrorDialog(project, message, MainDialog.COMPONENT_TITLE);
-                            }
-                        });
-                        if (configurations.size() == 1) {
-                            // show the error immediately
-                            Messages.showErrorDialog(project, message, MainDialog.COMPONENT_TITLE);
-                        }
-                    }
+                // workers still running can publish changes once the dialog is disposed
+                if (!disposed) {
+                    updatesTimer.start();
                 }
             });
-            if (taskState != TaskState.RUNNING)  Thread.sleep(ARTIFICIAL_WAIT_MS);
-        } catch(Exception ex){
-            /* nothing to do at this stage */
         }
     }
 
+    /**
+     * Applies the published changes, called periodically in the event dispatch thread, while there are any.
+     * Each status remains visible a minimum time, unless it is the last one for the configuration (any state
+     * but running): newer changes are kept meanwhile, skipping any intermediate status
+     */
+    private void applyUpdates() {
+        Map<Row, StatusUpdate> statuses = new LinkedHashMap<>();
+        Map<Row, GenerationRun> timings;
+        long now = System.currentTimeMillis();
+        synchronized (pendingStatus) {
+            Iterator<Map.Entry<Row, StatusUpdate>> it = pendingStatus.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Row, StatusUpdate> entry = it.next();
+                if (entry.getValue().state != TaskState.RUNNING
+                        || now - entry.getKey().statusShownAt >= MIN_DISPLAY_MS) {
+                    statuses.put(entry.getKey(), entry.getValue());
+                    it.remove();
+                }
+            }
+            timings = new LinkedHashMap<>(pendingTimings);
+            pendingTimings.clear();
+            if (pendingStatus.isEmpty()) {
+                updatesScheduled = false;
+                updatesTimer.stop();
+            }
+        }
+        String error = null;
+        for (Map.Entry<Row, StatusUpdate> entry : statuses.entrySet()) {
+            StatusUpdate update = entry.getValue();
+            model.setStatus(entry.getKey(), update.state, update.message, now);
+            if (update.state.failed) {
+                error = update.message;
+            }
+        }
+        timings.forEach(this::showTimings);
+        if (error != null && configurations.size() == 1) {
+            // show the error immediately, outside the timer notification
+            String message = error;
+            SwingUtilities.invokeLater(() -> Messages.showErrorDialog(project, message, MainDialog.COMPONENT_TITLE));
+        }
+    }
+
+    /**
+     * Shows the total time, and the time spent obtaining the token from AWS; all phases are in the tooltip
+     */
+    private void showTimings(Row row, GenerationRun run) {
+        StringBuilder tooltip = new StringBuilder("<html>");
+        for (TokenGenerator.Phase phase : TokenGenerator.Phase.values()) {
+            tooltip.append(phase.description).append(": ")
+                    .append(StatisticsDialog.formatElapsed(run.duration(phase))).append("<br>");
+        }
+        String text = StatisticsDialog.formatElapsed(run.totalMs());
+        if (run.tokenRequested) {
+            text += " (AWS " + StatisticsDialog.formatElapsed(run.obtainingTokenMs) + ")";
+        }
+        model.setTimings(row, run.totalMs(), text, tooltip.append("</html>").toString());
+    }
+
     protected @NotNull JPanel createButtonsPanel(@NotNull List buttons) {
         JPanel ret = super.createButtonsPanel(buttons);
         getOKAction().setEnabled(false);
@@ -176,84 +332,94 @@ class GenerationDialog extends DialogWrapper implements AWSInvoker.BackgroundCon
     @Nullable
     @Override
     protected JComponent createCenterPanel() {
-
-        JPanel centerPanel = new JPanel(new GridBagLayout());
-        GridBagConstraints c = new GridBagConstraints();
-        c.anchor = GridBagConstraints.WEST;
-        c.fill = GridBagConstraints.HORIZONTAL;
-        c.gridy = 0;
-        c.ipadx = 12;
-        c.ipady = 8;
-        centerPanel.add(createHeaderLabel("Configuration"), c);
-        centerPanel.add(createHeaderLabel("Maven server id"), c);
-        centerPanel.add(createHeaderLabel("Profile"), c);
-        c.weightx = 1.0;
-        JBLabel status = createHeaderLabel("status");
-        status.setMinimumSize(new Dimension(240, 0));
-        centerPanel.add(status, c);
-
-        for (Map.Entry<String, ConfigurationRow> entry : configurations.entrySet()) {
-            c.weightx = 0.0;
-            c.gridy = c.gridy + 1;
-            ConfigurationRow row = entry.getValue();
-            AwsConfiguration configuration = row.configuration;
-            centerPanel.add(createLabel(entry.getKey()), c);
-            centerPanel.add(createLabel(configuration.mavenServerId), c);
-            centerPanel.add(createLabel(configuration.profile), c);
-            c.weightx = 1.0;
-            String text;
-            Icon icon;
-            if (row.configuration.enabled || !isGenerateForAll) {
-                text = "";
-                icon = AllIcons.General.SeparatorH;
-            } else {
-                text = "Disabled";
-                icon = AllIcons.General.Warning;
-            }
-            centerPanel.add(row.message = createLabel(text), c);
-            row.message.setIconWithAlignment(icon, SwingConstants.LEFT, SwingConstants.CENTER);
-            row.message.setCopyable(false);
+        JBTable table = new JBTable(model);
+        table.setStriped(true);
+        TableRowSorter<GenerationStatusModel> sorter = new TableRowSorter<>(model);
+        // rows move as their state changes, if sorted or filtered by state
+        sorter.setSortsOnUpdates(true);
+        table.setRowSorter(sorter);
+        for (int i = 0; i < COLUMN_WIDTHS.length; i++) {
+            table.getColumnModel().getColumn(i).setPreferredWidth(COLUMN_WIDTHS[i]);
         }
+        table.getColumnModel().getColumn(GenerationStatusModel.STATUS_COLUMN).setCellRenderer(
+                new DefaultTableCellRenderer() {
+                    @Override
+                    protected void setValue(Object value) {
+                        Row row = (Row) value;
+                        setText(row.message);
+                        setIcon(row.state.icon);
+                        setToolTipText(row.state.failed ? "Click to see the whole error message" : null);
+                    }
+                });
+        DefaultTableCellRenderer timeRenderer = new DefaultTableCellRenderer() {
+            @Override
+            public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                                                           boolean hasFocus, int row, int column) {
+                Row status = model.getRow(table.convertRowIndexToModel(row));
+                super.getTableCellRendererComponent(table, status.timings, isSelected, hasFocus, row, column);
+                setToolTipText(status.timingsTooltip);
+                return this;
+            }
+        };
+        timeRenderer.setHorizontalAlignment(SwingConstants.RIGHT);
+        table.getColumnModel().getColumn(GenerationStatusModel.TIME_COLUMN).setCellRenderer(timeRenderer);
+        // a single listener shows the error of any failed row
+        table.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int viewRow = table.rowAtPoint(e.getPoint());
+                int column = table.columnAtPoint(e.getPoint());
+                if (viewRow >= 0 && column >= 0
+                        && table.convertColumnIndexToModel(column) == GenerationStatusModel.STATUS_COLUMN) {
+                    Row row = model.getRow(table.convertRowIndexToModel(viewRow));
+                    if (row.state.failed) {
+                        Messages.showErrorDialog(project, row.message, MainDialog.COMPONENT_TITLE);
+                    }
+                }
+            }
+        });
+        int visibleRows = Math.max(1, Math.min(MAX_VISIBLE_ROWS, model.getRowCount()));
+        table.setPreferredScrollableViewportSize(
+                new Dimension(Arrays.stream(COLUMN_WIDTHS).sum(), visibleRows * table.getRowHeight()));
 
-        Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
-        double maxWidth = screenSize.getWidth() -64, maxHeight = screenSize.getHeight() - 128;
-        Dimension size = centerPanel.getMinimumSize();
-        if (size.getHeight() > maxHeight || size.getWidth() > maxWidth) {
-            JScrollPane scroll = new JScrollPane(centerPanel,
-                    JScrollPane.VERTICAL_SCROLLBAR_NEVER,
-                    JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
-            scroll.setBorder(null);
-            Dimension sizeScrollNoBar = scroll.getPreferredSize();
-            scroll.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
-            scroll.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_ALWAYS);
-            Dimension sizeScrollBar = scroll.getPreferredSize();
-            scroll.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
-            scroll.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
-            size.setSize(
-                    Math.min(maxWidth, size.getWidth() + sizeScrollBar.getWidth() - sizeScrollNoBar.getWidth()),
-                    Math.min(maxHeight, size.getHeight() + sizeScrollBar.getHeight() - sizeScrollNoBar.getHeight())
-            );
-            JPanel wrapper = new JPanel(new BorderLayout());
-            wrapper.add(scroll, BorderLayout.CENTER);
-            wrapper.setPreferredSize(size);
-            return wrapper;
+        JPanel ret = new JPanel(new BorderLayout());
+        if (configurations.size() > 1) {
+            ret.add(createFilterPanel(sorter), BorderLayout.NORTH);
         }
-        return centerPanel;
+        ret.add(ScrollPaneFactory.createScrollPane(table), BorderLayout.CENTER);
+        return ret;
     }
 
-    private JBLabel createLabel(String text) {
-        JBLabel label = new JBLabel(text==null? "" : text);
-        label.setComponentStyle(UIUtil.ComponentStyle.LARGE);
-        label.setFontColor(UIUtil.FontColor.BRIGHTER);
-        label.setBorder(empty(0, 5, 2, 0));
-        return label;
+    /**
+     * Shows only the configurations in the selected state
+     */
+    private JComponent createFilterPanel(TableRowSorter<GenerationStatusModel> sorter) {
+        JComboBox<String> filter = new JComboBox<>();
+        filter.addItem(ALL_STATES);
+        for (TaskState state : TaskState.values()) {
+            filter.addItem(state.description);
+        }
+        filter.addActionListener(x -> {
+            Object selected = filter.getSelectedItem();
+            sorter.setRowFilter(ALL_STATES.equals(selected) ? null : new RowFilter<>() {
+                @Override
+                public boolean include(Entry<? extends GenerationStatusModel, ? extends Integer> entry) {
+                    return model.getRow(entry.getIdentifier()).state.description.equals(selected);
+                }
+            });
+        });
+        JPanel ret = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        ret.add(createHeaderLabel("Show configurations:"));
+        ret.add(filter);
+        ret.setBorder(empty(0, 0, 4, 0));
+        return ret;
     }
 
     private JBLabel createHeaderLabel(String text) {
         JBLabel label = new JBLabel(text);
         label.setComponentStyle(UIUtil.ComponentStyle.SMALL);
         label.setFontColor(UIUtil.FontColor.BRIGHTER);
-        label.setBorder(empty(0, 5, 2, 0));
+        label.setBorder(empty(0, 5, 2, 5));
         return label;
     }
 
@@ -264,16 +430,27 @@ class GenerationDialog extends DialogWrapper implements AWSInvoker.BackgroundCon
         } else {
             cancelled = true;
             getButton(getCancelAction()).setText(BACK_TEXT);
+            cancelListeners.forEach(Runnable::run);
         }
     }
 
+    @Override
+    protected void dispose() {
+        disposed = true;
+        updatesTimer.stop();
+        super.dispose();
+    }
+
     @Override
     public boolean isOK() {
         return super.isOK() && completed;
     }
 
+    /**
+     * MFA requests are serialized, to avoid showing several input dialogs at once
+     */
     @Override
-    public String requestMfaCode(String request)  throws OperationException{
+    public synchronized String requestMfaCode(String request)  throws OperationException{
         final String []ret = new String[1];
         try {
             SwingUtilities.invokeAndWait(() -> {
@@ -296,21 +473,20 @@ class GenerationDialog extends DialogWrapper implements AWSInvoker.BackgroundCon
         return cancelled;
     }
 
-    private static void checkNotEmptyString(String text, String description) throws OperationException {
-        if (text==null || text.isBlank()) {
-            throw new OperationException("Field %s is not defined", description);
+    @Override
+    public void addCancelListener(Runnable listener) {
+        cancelListeners.add(listener);
+        if (cancelled) {
+            listener.run();
         }
     }
 
-    private enum TaskState {
-        RUNNING(AllIcons.Toolwindows.ToolWindowRun),
-        CANCELLED(AllIcons.General.Warning),
-        ERROR(AllIcons.General.Error),
-        COMPLETED(AllIcons.General.InspectionsOK);
-        TaskState(Icon icon){
-            this.icon = icon;
-        }
-        final public Icon icon;
+    @Override
+    public void removeCancelListener(Runnable listener) {
+        cancelListeners.remove(listener);
+    }
+
+    private record StatusUpdate(TaskState state, String message) {
     }
 
 }
@@ -0,0 +1,143 @@
+package net.coderazzi.aws_codeartifact_maven.gui;
+
+import com.intellij.icons.AllIcons;
+import net.coderazzi.aws_codeartifact_maven.state.AwsConfiguration;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Status of each configuration in the generation dialog, shown in a table.
+ * Rows are only modified in the event dispatch thread; each update repaints only the changed cells
+ */
+class GenerationStatusModel extends AbstractTableModel {
+
+    static final int NAME_COLUMN = 0;
+    static final int SERVER_ID_COLUMN = 1;
+    static final int PROFILE_COLUMN = 2;
+    static final int STATUS_COLUMN = 3;
+    static final int TIME_COLUMN = 4;
+    private static final String[] COLUMNS = {"Configuration", "Maven server id", "Profile", "Status", "Time"};
+
+    enum TaskState {
+        WAITING("Waiting", AllIcons.General.SeparatorH, false),
+        DISABLED("Disabled", AllIcons.General.Warning, false),
+        RUNNING("Running", AllIcons.Toolwindows.ToolWindowRun, false),
+        CANCELLED("Cancelled", AllIcons.General.Warning, false),
+        ERROR("Failed", AllIcons.General.Error, true),
+        TIMED_OUT("Timed out", AllIcons.Actions.StopWatch, true),
+        COMPLETED("Completed", AllIcons.General.InspectionsOK, false);
+
+        TaskState(String description, Icon icon, boolean failed) {
+            this.description = description;
+            this.icon = icon;
+            this.failed = failed;
+        }
+
+        final public String description;
+        final public Icon icon;
+        final public boolean failed;
+    }
+
+    static class Row implements Comparable<Row> {
+        final String name;
+        final AwsConfiguration configuration;
+        final int index;
+        TaskState state;
+        String message;
+        /**
+         * Total time of the generation, -1 if not completed
+         */
+        long totalMs = -1;
+        String timings = "";
+        String timingsTooltip;
+        /**
+         * Time when the current state was shown, 0 for the initial state
+         */
+        long statusShownAt;
+
+        Row(String name, AwsConfiguration configuration, int index, TaskState state) {
+            this.name = name;
+            this.configuration = configuration;
+            this.index = index;
+            this.state = state;
+            this.message = state == TaskState.DISABLED ? state.description : "";
+        }
+
+        /**
+         * Rows sort by their state, in the order given by TaskState
+         */
+        @Override
+        public int compareTo(Row other) {
+            return state.compareTo(other.state);
+        }
+    }
+
+    private final List<Row> rows = new ArrayList<>();
+
+    Row addRow(String name, AwsConfiguration configuration, TaskState state) {
+        Row ret = new Row(name, configuration, rows.size(), state);
+        rows.add(ret);
+        return ret;
+    }
+
+    Row getRow(int index) {
+        return rows.get(index);
+    }
+
+    void setStatus(Row row, TaskState state, String message, long shownAt) {
+        row.state = state;
+        row.message = message;
+        row.statusShownAt = shownAt;
+        fireTableCellUpdated(row.index, STATUS_COLUMN);
+    }
+
+    void setTimings(Row row, long totalMs, String timings, String tooltip) {
+        row.totalMs = totalMs;
+        row.timings = timings;
+        row.timingsTooltip = tooltip;
+        fireTableCellUpdated(row.index, TIME_COLUMN);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return switch (column) {
+            case STATUS_COLUMN -> Row.class;
+            case TIME_COLUMN -> Long.class;
+            default -> String.class;
+        };
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int column) {
+        Row row = rows.get(rowIndex);
+        return switch (column) {
+            case NAME_COLUMN -> row.name;
+            case SERVER_ID_COLUMN -> nullToEmpty(row.configuration.mavenServerId);
+            case PROFILE_COLUMN -> nullToEmpty(row.configuration.profile);
+            case STATUS_COLUMN -> row;
+            default -> row.totalMs;
+        };
+    }
+
+    private static String nullToEmpty(String text) {
+        return text == null ? "" : text;
+    }
+}
@@ -1,7 +1,6 @@
 package net.coderazzi.aws_codeartifact_maven.gui;
 
 import com.intellij.icons.AllIcons;
-import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.fileChooser.FileChooserDescriptorFactory;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.*;
@@ -17,6 +16,8 @@ import com.intellij.util.ui.*;
 import net.coderazzi.aws_codeartifact_maven.state.AwsConfiguration;
 import net.coderazzi.aws_codeartifact_maven.utils.AWSProfileHandler;
 import net.coderazzi.aws_codeartifact_maven.utils.MavenSettingsFileHandler;
+import net.coderazzi.aws_codeartifact_maven.utils.PluginExecutor;
+import net.coderazzi.aws_codeartifact_maven.utils.TokenPrefetch;
 import net.coderazzi.aws_codeartifact_maven.state.Configuration;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -24,10 +25,14 @@ import org.jetbrains.annotations.Nullable;
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
 import static com.intellij.util.ui.JBUI.Borders.empty;
@@ -61,9 +66,14 @@ public class MainDialog extends DialogWrapper {
 
     private final JBCheckBox generateAllCheckBox = new JBCheckBox("Generate Tokens for all configurations");
     private final JBCheckBox enabledCheckbox = new JBCheckBox();
+    private final JBCheckBox forceRefreshCheckBox = new JBCheckBox("Force refresh");
 
     private boolean loadingProfiles;
-    private Thread loadingServersThread;
+    // identifies the current load of servers, null if none
+    private Object loadingServers;
+    private Future<?> loadingServersTask;
+    // tokens requested while the dialog is open, null if none or discarded
+    private TokenPrefetch prefetch;
     private final Project project;
     private final Configuration state = new Configuration();
 
@@ -87,15 +97,39 @@ public class MainDialog extends DialogWrapper {
         setAutoAdjustable(true);
         setOKButtonText("Generate Auth Token");
         setCancelButtonText("Close");
+        if (state.isTokenPrefetch()) {
+            getWindow().addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowOpened(WindowEvent e) {
+                    prefetch = TokenPrefetch.start(state);
+                }
+            });
+        }
     }
 
     @Override
     protected void doOKAction() {
-        if (this.getOKAction().isEnabled() && new GenerationDialog(project, state).showAndGet()) {
+        if (this.getOKAction().isEnabled()
+                && new GenerationDialog(project, state, forceRefreshCheckBox.isSelected(), prefetch).showAndGet()) {
             super.doOKAction();
         }
     }
 
+    @Override
+    protected Action[] createLeftSideActions() {
+        return new Action[]{new DialogWrapperAction("Options...") {
+            @Override
+            protected void doAction(ActionEvent e) {
+                new OptionsDialog(project, state).show();
+            }
+        }, new DialogWrapperAction("Statistics...") {
+            @Override
+            protected void doAction(ActionEvent e) {
+                new StatisticsDialog(project, state).show();
+            }
+        }};
+    }
+
     /**
      * Called whenever the user changes the maven server id
      */
@@ -197,19 +231,21 @@ public class MainDialog extends DialogWrapper {
     }
 
     /**
-     * Starts a new thread to load the servers from the maven settings file.
+     * Starts a background task to load the servers from the maven settings file.
      * It does nothing if there is already a reload in progress for the same settings file
      */
     private void reloadServersInBackground() {
         final String filename = settingsFile.getText().trim();
-        if (!filename.equals(state.getMavenServerSettingsFile())  || loadingServersThread == null) {
+        if (!filename.equals(state.getMavenServerSettingsFile())  || loadingServers == null) {
             state.setMavenSettingsFile(filename);
             String current = state.getCurrentConfiguration().mavenServerId;
             serverIdsModel.removeAllElements();
             if (!filename.isEmpty()) {
                 serverIdsModel.addElement(LOADING);
                 serverIdComboBox.setEnabled(false);
-                loadingServersThread = new Thread(() -> {
+                cancelLoadingServers();
+                final Object load = loadingServers = new Object();
+                loadingServersTask = PluginExecutor.getInstance().submit("maven servers load", () -> {
                     try {
                         Set<String> ids = new MavenSettingsFileHandler(filename).getServerIds(MAVEN_SERVER_USERNAME);
                         String error = ids.isEmpty() ? "Maven settings file does not define any server with username 'aws'"
@@ -217,20 +253,19 @@ public class MainDialog extends DialogWrapper {
                         if (error == null) {
                             setTooltipOnCombobox(serverIdsModel,
                                     String.format("Loaded %d server id%s", ids.size(), ids.size()>1 ? "s" : ""),
-                                    loadingServersThread);
+                                    load);
                         }
-                        updateServersInForeground(current, ids, error);
+                        updateServersInForeground(load, current, ids, error);
                     } catch (MavenSettingsFileHandler.GetServerIdsException ex) {
-                        updateServersInForeground(current, new HashSet<>(), ex.getMessage());
+                        updateServersInForeground(load, current, new HashSet<>(), ex.getMessage());
                     }
                 });
-                loadingServersThread.start();
             }
         }
     }
 
     /**
-     * Starts a new thread to load the profiles from the aws config file.
+     * Starts a background task to load the profiles from the aws config file.
      * It does nothing if there is already a reload in progress
      */
     private void reloadProfilesInBackground() {
@@ -239,7 +274,7 @@ public class MainDialog extends DialogWrapper {
             profileComboBox.setEnabled(false);
             profileModel.removeAllElements();
             profileModel.addElement(LOADING);
-            ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            PluginExecutor.getInstance().submit("aws profiles load", () -> {
                 Set<String> profiles;
                 String error = null;
                 try {
@@ -273,11 +308,10 @@ public class MainDialog extends DialogWrapper {
         });
     }
 
-    private void setTooltipOnCombobox(DefaultComboBoxModel model, String message, Thread checkThread) {
-        final Thread thread = Thread.currentThread();
+    private void setTooltipOnCombobox(DefaultComboBoxModel model, String message, Object load) {
         try {
             SwingUtilities.invokeAndWait(() -> {
-                if (checkThread == null || checkThread == thread) {
+                if (load == null || load == loadingServers) {
                     model.removeAllElements();
                     model.addElement(getTooltipObject(message));
                 }
@@ -288,13 +322,13 @@ public class MainDialog extends DialogWrapper {
         }
     }
 
-    private void updateServersInForeground(String originalSetting, Set<String> serverIds, String error) {
-        final Thread thread = Thread.currentThread();
+    private void updateServersInForeground(Object load, String originalSetting, Set<String> serverIds, String error) {
         SwingUtilities.invokeLater(() -> {
-            if (thread == loadingServersThread) {
+            if (load == loadingServers) {
                 state.getCurrentConfiguration().mavenServerId=originalSetting;
                 state.setDefinedMavenServerIds(serverIds);
-                loadingServersThread = null;
+                loadingServers = null;
+                loadingServersTask = null;
                 showRepositoryInformation(false);
                 if (error == null) {
                     serverIdComboBox.requestFocus();
@@ -305,6 +339,22 @@ public class MainDialog extends DialogWrapper {
         });
     }
 
+    /**
+     * Discards the prefetched tokens if they do not correspond anymore to the tokens to generate
+     */
+    private void checkPrefetch() {
+        if (prefetch != null && !prefetch.isCurrent(state)) {
+            discardPrefetch();
+        }
+    }
+
+    private void discardPrefetch() {
+        if (prefetch != null) {
+            prefetch.cancel();
+            prefetch = null;
+        }
+    }
+
     private void updateGenerationButtonState() {
         JButton ok = getButton((getOKAction()));
         if (ok != null) {
@@ -330,6 +380,7 @@ public class MainDialog extends DialogWrapper {
             protected void textChanged(@NotNull DocumentEvent documentEvent) {
                 updateGenerationButtonState();
                 action.accept(check.getText().trim());
+                checkPrefetch();
             }
         });
     }
@@ -338,6 +389,7 @@ public class MainDialog extends DialogWrapper {
         check.addItemListener(x -> {
             updateGenerationButtonState();
             action.run();
+            checkPrefetch();
         });
     }
 
@@ -388,18 +440,24 @@ public class MainDialog extends DialogWrapper {
     private void handleGenerateAllChange() {
         state.setGenerateForAll(generateAllCheckBox.isSelected());
         updateGenerationButtonState();
+        checkPrefetch();
     }
 
     private void handleEnableConfigurationChange() {
         state.getCurrentConfiguration().enabled = enabledCheckbox.isSelected();
+        checkPrefetch();
     }
 
 
     @Override
     protected JComponent createSouthPanel() {
         JComponent parent = super.createSouthPanel();
+        JPanel checkBoxes = new JPanel(new BorderLayout(12, 0));
+        checkBoxes.add(generateAllCheckBox, BorderLayout.WEST);
+        checkBoxes.add(forceRefreshCheckBox, BorderLayout.EAST);
+        forceRefreshCheckBox.setToolTipText("Request new tokens even if the current ones are still valid");
         JPanel wrapped = new JPanel(new BorderLayout(12, 0));
-        wrapped.add(generateAllCheckBox, BorderLayout.WEST);
+        wrapped.add(checkBoxes, BorderLayout.WEST);
         wrapped.add(parent, BorderLayout.EAST);
         generateAllCheckBox.setSelected(state.isGenerateForAll());
         JPanel ret = new JPanel(new BorderLayout());
@@ -506,10 +564,24 @@ public class MainDialog extends DialogWrapper {
 
     @Override
     public void doCancelAction() {
-        loadingServersThread = null;
+        cancelLoadingServers();
         super.doCancelAction();
     }
 
+    @Override
+    protected void dispose() {
+        discardPrefetch();
+        super.dispose();
+    }
+
+    private void cancelLoadingServers() {
+        if (loadingServersTask != null) {
+            loadingServersTask.cancel(true);
+            loadingServersTask = null;
+        }
+        loadingServers = null;
+    }
+
     private boolean checkNonEmpty(JTextField check) {
         return !check.getText().isBlank();
     }
@@ -0,0 +1,145 @@
+package net.coderazzi.aws_codeartifact_maven.gui;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.ui.TitledSeparator;
+import com.intellij.ui.components.JBCheckBox;
+import com.intellij.ui.components.JBLabel;
+import com.intellij.uiDesigner.core.AbstractLayout;
+import com.intellij.util.ui.GridBag;
+import com.intellij.util.ui.JBUI;
+import com.intellij.util.ui.UIUtil;
+import net.coderazzi.aws_codeartifact_maven.services.TokenRefreshService;
+import net.coderazzi.aws_codeartifact_maven.state.Configuration;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+
+import static com.intellij.util.ui.JBUI.Borders.empty;
+
+class OptionsDialog extends DialogWrapper {
+
+    private final Configuration state;
+    private final JSpinner parallelGenerations;
+    private final JSpinner refreshThreshold;
+    private final JBCheckBox sharedTokenCache = new JBCheckBox("Share tokens with other IDE instances");
+    private final JBCheckBox tokenPrefetch = new JBCheckBox("Request tokens as soon as the main window opens");
+    private final JBCheckBox backgroundRefresh = new JBCheckBox("Refresh tokens in background before they expire");
+    private final JSpinner backgroundRefreshLead;
+    private final JBCheckBox refreshOnProjectOpen = new JBCheckBox("Refresh expiring tokens when a project is opened");
+    private final JBCheckBox refreshBeforeMaven = new JBCheckBox("Refresh expiring tokens before maven builds and imports");
+    private final JBCheckBox nativeClient = new JBCheckBox("Request tokens without the aws cli, if possible");
+    private final JTextField endpointUrl = new JTextField(32);
+    private final JSpinner connectTimeout;
+    private final JSpinner requestTimeout;
+
+    public OptionsDialog(Project project, Configuration state) {
+        super(project, true); // use current window as parent
+        this.state = state;
+        parallelGenerations = new JSpinner(new SpinnerNumberModel(state.getParallelGenerations(),
+                1, Configuration.MAX_PARALLEL_GENERATIONS, 1));
+        refreshThreshold = new JSpinner(new SpinnerNumberModel(state.getRefreshThresholdMinutes(),
+                1, Configuration.MAX_REFRESH_THRESHOLD_MINUTES, 5));
+        backgroundRefreshLead = new JSpinner(new SpinnerNumberModel(state.getBackgroundRefreshLeadMinutes(),
+                1, Configuration.MAX_BACKGROUND_REFRESH_LEAD_MINUTES, 5));
+        connectTimeout = new JSpinner(new SpinnerNumberModel(state.getConnectTimeoutSeconds(),
+                1, Configuration.MAX_CONNECT_TIMEOUT_SECONDS, 5));
+        requestTimeout = new JSpinner(new SpinnerNumberModel(state.getRequestTimeoutSeconds(),
+                1, Configuration.MAX_REQUEST_TIMEOUT_SECONDS, 10));
+        sharedTokenCache.setSelected(state.isSharedTokenCache());
+        tokenPrefetch.setSelected(state.isTokenPrefetch());
+        backgroundRefresh.setSelected(state.isBackgroundRefresh());
+        backgroundRefresh.addItemListener(x -> backgroundRefreshLead.setEnabled(backgroundRefresh.isSelected()));
+        backgroundRefreshLead.setEnabled(backgroundRefresh.isSelected());
+        refreshOnProjectOpen.setSelected(state.isRefreshOnProjectOpen());
+        refreshBeforeMaven.setSelected(state.isRefreshBeforeMaven());
+        nativeClient.setSelected(state.isNativeClient());
+        nativeClient.addItemListener(x -> endpointUrl.setEnabled(nativeClient.isSelected()));
+        endpointUrl.setText(state.getEndpointUrl());
+        endpointUrl.setEnabled(nativeClient.isSelected());
+        init();
+        setTitle("Auth Tokens Generation Options");
+        setAutoAdjustable(true);
+    }
+
+    @Override
+    protected void doOKAction() {
+        state.setParallelGenerations((Integer) parallelGenerations.getValue());
+        state.setRefreshThresholdMinutes((Integer) refreshThreshold.getValue());
+        state.setSharedTokenCache(sharedTokenCache.isSelected());
+        state.setTokenPrefetch(tokenPrefetch.isSelected());
+        state.setBackgroundRefresh(backgroundRefresh.isSelected());
+        state.setBackgroundRefreshLeadMinutes((Integer) backgroundRefreshLead.getValue());
+        state.setRefreshOnProjectOpen(refreshOnProjectOpen.isSelected());
+        state.setRefreshBeforeMaven(refreshBeforeMaven.isSelected());
+        state.setNativeClient(nativeClient.isSelected());
+        state.setEndpointUrl(endpointUrl.getText().trim());
+        state.setConnectTimeoutSeconds((Integer) connectTimeout.getValue());
+        state.setRequestTimeoutSeconds((Integer) requestTimeout.getValue());
+        TokenRefreshService.getInstance().reschedule();
+        super.doOKAction();
+    }
+
+    @Nullable
+    @Override
+    protected JComponent createCenterPanel() {
+        double labelsWeight = 2.0;
+
+        GridBag gridbag = new GridBag()
+                .setDefaultWeightX(labelsWeight * 5)
+                .setDefaultFill(GridBagConstraints.HORIZONTAL)
+                .setDefaultInsets(JBUI.insets(0, 0, AbstractLayout.DEFAULT_VGAP, AbstractLayout.DEFAULT_HGAP));
+
+        JPanel centerPanel = new JPanel(new GridBagLayout());
+        centerPanel.add(new TitledSeparator("Generation"), gridbag.nextLine().coverLine());
+        centerPanel.add(createLabel("Parallel generations:"), gridbag.nextLine().next().weightx(labelsWeight));
+        centerPanel.add(parallelGenerations, gridbag.next().coverLine());
+        parallelGenerations.setToolTipText(
+                "Configurations sharing the same AWS profile are always generated one after the other");
+        centerPanel.add(createLabel("Refresh tokens expiring within (minutes):"),
+                gridbag.nextLine().next().weightx(labelsWeight));
+        centerPanel.add(refreshThreshold, gridbag.next().coverLine());
+        refreshThreshold.setToolTipText(
+                "Tokens with a longer remaining validity are not requested again, unless refresh is forced");
+        centerPanel.add(sharedTokenCache, gridbag.nextLine().coverLine());
+        sharedTokenCache.setToolTipText("Tokens are kept under the user home, readable only by the user");
+        centerPanel.add(tokenPrefetch, gridbag.nextLine().coverLine());
+        tokenPrefetch.setToolTipText(
+                "The settings file is only updated when generating the tokens; MFA profiles are not prefetched");
+        centerPanel.add(new TitledSeparator("Background Refresh"), gridbag.nextLine().coverLine());
+        centerPanel.add(backgroundRefresh, gridbag.nextLine().coverLine());
+        centerPanel.add(createLabel("Refresh before expiration (minutes):"),
+                gridbag.nextLine().next().weightx(labelsWeight));
+        centerPanel.add(backgroundRefreshLead, gridbag.next().coverLine());
+        centerPanel.add(refreshOnProjectOpen, gridbag.nextLine().coverLine());
+        refreshOnProjectOpen.setToolTipText(
+                "Tokens expiring within the refresh threshold are refreshed in background, without delaying the project");
+        centerPanel.add(refreshBeforeMaven, gridbag.nextLine().coverLine());
+        refreshBeforeMaven.setToolTipText(
+                "Only the tokens used by the project are checked; new maven run configurations get a before launch step");
+        centerPanel.add(new TitledSeparator("AWS Access"), gridbag.nextLine().coverLine());
+        centerPanel.add(nativeClient, gridbag.nextLine().coverLine());
+        nativeClient.setToolTipText("Profiles without static credentials (roles, SSO...) still use the aws cli");
+        centerPanel.add(createLabel("CodeArtifact endpoint URL:"), gridbag.nextLine().next().weightx(labelsWeight));
+        centerPanel.add(endpointUrl, gridbag.next().coverLine());
+        endpointUrl.setToolTipText("Leave empty to use the AWS regional endpoint");
+        centerPanel.add(createLabel("Connection timeout (seconds):"), gridbag.nextLine().next().weightx(labelsWeight));
+        centerPanel.add(connectTimeout, gridbag.next().coverLine());
+        centerPanel.add(createLabel("Request timeout (seconds):"), gridbag.nextLine().next().weightx(labelsWeight));
+        centerPanel.add(requestTimeout, gridbag.next().coverLine());
+        requestTimeout.setToolTipText(
+                "The aws cli is stopped if it does not complete in time; the time entering MFA codes is not included");
+        centerPanel.setBorder(BorderFactory.createEmptyBorder(0, 0, 24, 0));
+        return centerPanel;
+    }
+
+    private JBLabel createLabel(String text) {
+        JBLabel label = new JBLabel(text);
+        label.setComponentStyle(UIUtil.ComponentStyle.SMALL);
+        label.setFontColor(UIUtil.FontColor.BRIGHTER);
+        label.setBorder(empty(0, 5, 2, 0));
+        return label;
+    }
+
+}
@@ -0,0 +1,119 @@
+package net.coderazzi.aws_codeartifact_maven.gui;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.ui.ScrollPaneFactory;
+import com.intellij.ui.table.JBTable;
+import net.coderazzi.aws_codeartifact_maven.state.AwsConfiguration;
+import net.coderazzi.aws_codeartifact_maven.state.Configuration;
+import net.coderazzi.aws_codeartifact_maven.state.GenerationHistory;
+import net.coderazzi.aws_codeartifact_maven.state.GenerationRun;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableRowSorter;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.util.List;
+
+/**
+ * Shows the durations of the last generations per configuration, sorted by the slowest ones.
+ * Only the runs that requested a token are considered
+ */
+class StatisticsDialog extends DialogWrapper {
+
+    private static final String[] COLUMNS = {"Configuration", "Profile", "Region", "Runs", "Failed",
+            "AWS p50", "AWS p95", "Total p50", "Total p95"};
+    private static final int FIRST_DURATION_COLUMN = 5;
+    private static final int SORT_COLUMN = 8;
+
+    private final Configuration state;
+    private final DefaultTableModel model = new DefaultTableModel(COLUMNS, 0) {
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column < 3 ? String.class : Long.class;
+        }
+
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return false;
+        }
+    };
+
+    public StatisticsDialog(Project project, Configuration state) {
+        super(project, true); // use current window as parent
+        this.state = state;
+        init();
+        setTitle("Auth Tokens Generation Statistics");
+        setAutoAdjustable(true);
+        setOKButtonText("Close");
+        loadModel();
+    }
+
+    @Override
+    protected Action[] createActions() {
+        return new Action[]{getOKAction()};
+    }
+
+    @Override
+    protected Action[] createLeftSideActions() {
+        return new Action[]{new DialogWrapperAction("Clear History") {
+            @Override
+            protected void doAction(ActionEvent e) {
+                state.clearGenerationHistory();
+                loadModel();
+            }
+        }};
+    }
+
+    private void loadModel() {
+        model.setRowCount(0);
+        for (String name : state.getConfigurationNames()) {
+            AwsConfiguration configuration = state.getConfiguration(name);
+            GenerationHistory history = state.getGenerationHistory(name);
+            if (history != null) {
+                List<GenerationRun> runs = history.copyRuns().stream().filter(run -> run.tokenRequested).toList();
+                if (!runs.isEmpty()) {
+                    String region = configuration.region == null || configuration.region.isBlank()
+                            ? Configuration.DEFAULT_PROFILE_REGION : configuration.region;
+                    model.addRow(new Object[]{name, configuration.profile, region,
+                            (long) runs.size(),
+                            runs.stream().filter(GenerationRun::hasFailed).count(),
+                            history.percentile(50, run -> run.obtainingTokenMs),
+                            history.percentile(95, run -> run.obtainingTokenMs),
+                            history.percentile(50, GenerationRun::totalMs),
+                            history.percentile(95, GenerationRun::totalMs)});
+                }
+            }
+        }
+    }
+
+    @Nullable
+    @Override
+    protected JComponent createCenterPanel() {
+        JBTable table = new JBTable(model);
+        table.setStriped(true);
+        TableRowSorter<DefaultTableModel> sorter = new TableRowSorter<>(model);
+        sorter.setSortKeys(List.of(new RowSorter.SortKey(SORT_COLUMN, SortOrder.DESCENDING)));
+        table.setRowSorter(sorter);
+        DefaultTableCellRenderer durationRenderer = new DefaultTableCellRenderer() {
+            @Override
+            protected void setValue(Object value) {
+                setText(value instanceof Long ms ? formatElapsed(ms) : "");
+            }
+        };
+        durationRenderer.setHorizontalAlignment(SwingConstants.RIGHT);
+        for (int i = FIRST_DURATION_COLUMN; i < COLUMNS.length; i++) {
+            table.getColumnModel().getColumn(i).setCellRenderer(durationRenderer);
+        }
+        JScrollPane ret = ScrollPaneFactory.createScrollPane(table);
+        ret.setPreferredSize(new Dimension(760, 320));
+        return ret;
+    }
+
+    static String formatElapsed(long ms) {
+        return ms < 1000 ? ms + " ms" : String.format("%.1f s", ms / 1000.0);
+    }
+}
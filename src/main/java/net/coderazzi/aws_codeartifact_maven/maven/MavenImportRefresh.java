@@ -0,0 +1,53 @@
+package net.coderazzi.aws_codeartifact_maven.maven;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import net.coderazzi.aws_codeartifact_maven.services.TokenRefreshService;
+import net.coderazzi.aws_codeartifact_maven.state.Configuration;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.idea.maven.project.MavenImportListener;
+import org.jetbrains.idea.maven.project.MavenProject;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Refreshes the expiring tokens used by the project when a maven import starts, so that the import resolves
+ * the dependencies with valid tokens. The import waits for the refresh only if any token is expiring, which
+ * is checked in memory, or if a refresh queued when the project was opened is still pending. If the import
+ * starts in the UI thread, which must not block, the refresh is only started in background
+ */
+public class MavenImportRefresh implements MavenImportListener {
+
+    private final Project project;
+
+    public MavenImportRefresh(Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public void importStarted() {
+        if (new Configuration().isRefreshBeforeMaven()) {
+            Set<String> mavenServerIds = MavenServerIds.get(project);
+            TokenRefreshService service = TokenRefreshService.getInstance();
+            if (ApplicationManager.getApplication().isDispatchThread()) {
+                service.queueRefresh(project, mavenServerIds);
+            } else {
+                // the import's own indicator, if any, cancels the wait and the refresh
+                ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+                service.awaitQueuedRefresh(project, indicator);
+                if (service.hasExpiringTokens(mavenServerIds)) {
+                    service.refreshExpiringTokens(indicator, mavenServerIds);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void importFinished(@NotNull Collection<MavenProject> importedProjects, @NotNull List<Module> newModules) {
+    }
+}
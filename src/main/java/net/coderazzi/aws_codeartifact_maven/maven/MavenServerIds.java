@@ -0,0 +1,92 @@
+package net.coderazzi.aws_codeartifact_maven.maven;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import net.coderazzi.aws_codeartifact_maven.state.AwsConfiguration;
+import net.coderazzi.aws_codeartifact_maven.state.Configuration;
+import org.jetbrains.idea.maven.model.MavenRemoteRepository;
+import org.jetbrains.idea.maven.project.MavenGeneralSettings;
+import org.jetbrains.idea.maven.project.MavenProject;
+import org.jetbrains.idea.maven.project.MavenProjectsManager;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Server ids used by the maven build of a project: the ids of the remote repositories of its maven projects,
+ * as known by the maven plugin, the ids of their plugin and deployment repositories, read from the pom files,
+ * and the ids of the mirrors in the effective maven settings
+ */
+final class MavenServerIds {
+
+    private static final String SETTINGS_XPATH = "/settings/mirrors/mirror/id";
+    private static final String POM_XPATH = "//pluginRepositories/pluginRepository/id | //distributionManagement/*/id";
+
+    private MavenServerIds() {
+    }
+
+    /**
+     * Returns the server ids used by the given project, or null if unknown: project not imported yet, or
+     * none of its server ids defined in the plugin configurations, as it could use them in ways not covered
+     */
+    static Set<String> get(Project project) {
+        MavenProjectsManager manager = MavenProjectsManager.getInstance(project);
+        List<MavenProject> projects = manager.getProjects();
+        if (projects.isEmpty()) {
+            return null;
+        }
+        Set<String> ret = new HashSet<>();
+        for (MavenProject mavenProject : projects) {
+            for (MavenRemoteRepository repository : mavenProject.getRemoteRepositories()) {
+                ret.add(repository.getId());
+            }
+            VirtualFile pom = mavenProject.getFile();
+            if (pom != null) {
+                addIds(ret, new File(pom.getPath()), POM_XPATH);
+            }
+        }
+        MavenGeneralSettings settings = manager.getGeneralSettings();
+        addIds(ret, settings.getEffectiveUserSettingsIoFile(), SETTINGS_XPATH);
+        addIds(ret, settings.getEffectiveGlobalSettingsIoFile(), SETTINGS_XPATH);
+        Configuration state = new Configuration();
+        for (String name : state.getConfigurationNames()) {
+            AwsConfiguration configuration = state.getConfiguration(name);
+            if (configuration.enabled && ret.contains(configuration.mavenServerId)) {
+                return ret;
+            }
+        }
+        return null;
+    }
+
+    private static void addIds(Set<String> ids, File file, String xpath) {
+        if (file != null && file.isFile()) {
+            try {
+                DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+                dbFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+                Document document = dbFactory.newDocumentBuilder().parse(file);
+                NodeList nodes = (NodeList) XPathFactory.newInstance().newXPath()
+                        .evaluate(xpath, document, XPathConstants.NODESET);
+                for (int i = 0; i < nodes.getLength(); i++) {
+                    ids.add(nodes.item(i).getTextContent().trim());
+                }
+            } catch (ParserConfigurationException | SAXException | IOException | XPathExpressionException ex) {
+                // the file is then ignored, maven reports any problem in it
+                LOGGER.debug("Cannot read server ids from " + file, ex);
+            }
+        }
+    }
+
+    private final static Logger LOGGER = Logger.getInstance(MavenServerIds.class);
+}
@@ -0,0 +1,75 @@
+package net.coderazzi.aws_codeartifact_maven.maven;
+
+import com.intellij.execution.BeforeRunTask;
+import com.intellij.execution.BeforeRunTaskProvider;
+import com.intellij.execution.configurations.RunConfiguration;
+import com.intellij.execution.runners.ExecutionEnvironment;
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.actionSystem.DataContext;
+import com.intellij.openapi.util.Key;
+import net.coderazzi.aws_codeartifact_maven.services.TokenRefreshService;
+import net.coderazzi.aws_codeartifact_maven.state.Configuration;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.idea.maven.execution.MavenRunConfiguration;
+
+import javax.swing.*;
+import java.util.Set;
+
+/**
+ * Before launch step refreshing the tokens that the maven build uses, if they expire within the refresh
+ * threshold. The usual case, with valid tokens, is only an in-memory check.
+ * The step is added to every new maven run configuration, and only refreshes the tokens while the option to
+ * refresh before maven builds is enabled, so the option can be changed without editing run configurations;
+ * it can be added manually to any run configuration.
+ */
+public class TokenBeforeRunTaskProvider extends BeforeRunTaskProvider<TokenBeforeRunTaskProvider.TokenTask> {
+
+    private static final Key<TokenTask> ID = Key.create("AwsCodeArtifactMavenTokens");
+
+    public static class TokenTask extends BeforeRunTask<TokenTask> {
+        TokenTask() {
+            super(ID);
+        }
+    }
+
+    @Override
+    public Key<TokenTask> getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "Refresh AWS CodeArtifact auth tokens";
+    }
+
+    @Override
+    public Icon getIcon() {
+        return AllIcons.Actions.ShowWriteAccess;
+    }
+
+    @Override
+    public TokenTask createTask(@NotNull RunConfiguration runConfiguration) {
+        TokenTask ret = new TokenTask();
+        ret.setEnabled(runConfiguration instanceof MavenRunConfiguration);
+        return ret;
+    }
+
+    /**
+     * Called in background before the run starts. The run always proceeds: refresh failures are notified
+     */
+    @Override
+    public boolean executeTask(@NotNull DataContext context,
+                               @NotNull RunConfiguration configuration,
+                               @NotNull ExecutionEnvironment environment,
+                               @NotNull TokenTask task) {
+        if (!new Configuration().isRefreshBeforeMaven()) {
+            return true;
+        }
+        Set<String> mavenServerIds = MavenServerIds.get(environment.getProject());
+        TokenRefreshService service = TokenRefreshService.getInstance();
+        if (service.hasExpiringTokens(mavenServerIds)) {
+            service.refreshExpiringTokens(null, mavenServerIds);
+        }
+        return true;
+    }
+}
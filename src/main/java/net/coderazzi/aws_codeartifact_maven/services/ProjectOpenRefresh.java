@@ -0,0 +1,23 @@
+package net.coderazzi.aws_codeartifact_maven.services;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.startup.StartupActivity;
+import net.coderazzi.aws_codeartifact_maven.state.Configuration;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Refreshes the expired or soon expiring tokens as soon as a project is opened, so that the maven import
+ * does not fail on the CodeArtifact dependencies. The refresh runs as a background task, with progress:
+ * neither the project startup nor the UI thread wait for it, but the maven import does, if the option to refresh
+ * before maven imports is enabled.
+ * It is dumb aware, to start while the project is still being indexed.
+ */
+public class ProjectOpenRefresh implements StartupActivity.DumbAware {
+
+    @Override
+    public void runActivity(@NotNull Project project) {
+        if (new Configuration().isRefreshOnProjectOpen()) {
+            TokenRefreshService.getInstance().queueRefresh(project, null);
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package net.coderazzi.aws_codeartifact_maven.services;
+
+import com.intellij.notification.NotificationAction;
+import com.intellij.notification.NotificationGroupManager;
+import com.intellij.notification.NotificationType;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationActivationListener;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.wm.IdeFrame;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import net.coderazzi.aws_codeartifact_maven.gui.MainDialog;
+import net.coderazzi.aws_codeartifact_maven.state.AwsConfiguration;
+import net.coderazzi.aws_codeartifact_maven.state.Configuration;
+import net.coderazzi.aws_codeartifact_maven.state.GeneratedToken;
+import net.coderazzi.aws_codeartifact_maven.utils.AWSInvoker;
+import net.coderazzi.aws_codeartifact_maven.utils.AWSProfileHandler;
+import net.coderazzi.aws_codeartifact_maven.utils.OperationException;
+import net.coderazzi.aws_codeartifact_maven.utils.PluginExecutor;
+import net.coderazzi.aws_codeartifact_maven.utils.TokenGenerator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Refreshes in the background the tokens generated by the plugin, some minutes before they expire.
+ * There is no polling: a single wakeup is scheduled for the next token to refresh, if any.
+ * As the scheduler does not account for the time the computer is suspended, the wakeup is computed again
+ * each time the IDE is activated, which usually follows a resume; each wakeup also reschedules the next one
+ * using the wall clock, and a wakeup noticing a wall clock jump only reschedules.
+ * Tokens can be also refreshed before they are due, using the refresh threshold: when a project is opened,
+ * or before a maven build. In that case, only the configurations whose maven server ids the build uses can be
+ * checked; the check only uses the expiration kept in memory, it does not read the settings file.
+ * A single refresh runs at a time: a refresh requested meanwhile waits for it, and checks the tokens again.
+ */
+public final class TokenRefreshService implements Disposable {
+
+    private static final long CLOCK_JUMP_TOLERANCE_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long RETRY_DELAY_MS = TimeUnit.MINUTES.toMillis(15);
+    private static final long CANCEL_POLL_MS = 100;
+
+    /**
+     * Failed refresh for a configuration, only applicable while the generated token does not change
+     */
+    private static class Failure {
+        final GeneratedToken token;
+        final long retryAfter;
+
+        Failure(GeneratedToken token, long retryAfter) {
+            this.token = token;
+            this.retryAfter = retryAfter;
+        }
+    }
+
+    private final Map<String, Failure> failures = new ConcurrentHashMap<>();
+    /**
+     * Configurations without a known token already refreshed in this session: they are not checked again
+     */
+    private final Set<String> checkedUnknown = ConcurrentHashMap.newKeySet();
+    /**
+     * Background refresh tasks queued for each project, completed once the task finishes or is cancelled
+     */
+    private final Map<Project, CompletableFuture<Void>> queuedRefreshes = new ConcurrentHashMap<>();
+    private final Set<Runnable> cancelListeners = ConcurrentHashMap.newKeySet();
+    private ScheduledFuture<?> wakeUp;
+    private long scheduledAtWallClock, scheduledAtNanos;
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private volatile boolean disposed;
+
+    public static TokenRefreshService getInstance() {
+        return ApplicationManager.getApplication().getService(TokenRefreshService.class);
+    }
+
+    /**
+     * Computes again the next wakeup. To be called whenever the tokens or the refresh settings change
+     */
+    public synchronized void reschedule() {
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+            wakeUp = null;
+        }
+        if (disposed || refreshLock.isLocked()) {
+            return; // a refresh in progress always reschedules on completion
+        }
+        Configuration state = new Configuration();
+        if (state.isBackgroundRefresh()) {
+            long next = getNextRefreshTime(state);
+            if (next != Long.MAX_VALUE) {
+                scheduledAtWallClock = System.currentTimeMillis();
+                scheduledAtNanos = System.nanoTime();
+                long delay = Math.max(0, next - scheduledAtWallClock);
+                wakeUp = AppExecutorUtil.getAppScheduledExecutorService().schedule(this::wakeUp,
+                        delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void dispose() {
+        disposed = true;
+        cancelListeners.forEach(Runnable::run);
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+            wakeUp = null;
+        }
+    }
+
+    /**
+     * Returns true if any enabled configuration has a token expiring within the refresh threshold, or has no
+     * known token and has not been refreshed yet in this session
+     *
+     * @param mavenServerIds if not null, only the configurations for these server ids are checked
+     */
+    public boolean hasExpiringTokens(@Nullable Set<String> mavenServerIds) {
+        Configuration state = new Configuration();
+        return !getExpiringConfigurations(state, TimeUnit.MINUTES.toMillis(state.getRefreshThresholdMinutes()),
+                mavenServerIds).isEmpty();
+    }
+
+    /**
+     * Queues a background task, with progress, to refresh the expiring tokens, if there is any
+     *
+     * @param mavenServerIds if not null, only the configurations for these server ids are refreshed
+     */
+    public void queueRefresh(@NotNull Project project, @Nullable Set<String> mavenServerIds) {
+        if (hasExpiringTokens(mavenServerIds)) {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            queuedRefreshes.put(project, done);
+            new Task.Backgroundable(project, "Refreshing AWS CodeArtifact auth tokens", true) {
+                @Override
+                public void run(@NotNull ProgressIndicator indicator) {
+                    indicator.setIndeterminate(false);
+                    refreshExpiringTokens(indicator, mavenServerIds);
+                }
+
+                @Override
+                public void onFinished() {
+                    queuedRefreshes.remove(project, done);
+                    done.complete(null);
+                }
+            }.queue();
+        }
+    }
+
+    /**
+     * Waits until the background refresh queued for the given project, if any, completes: even if not
+     * started yet, it is not worth requesting the same tokens meanwhile. It returns soon after the
+     * indicator, if given, is cancelled
+     */
+    public void awaitQueuedRefresh(@NotNull Project project, @Nullable ProgressIndicator indicator) {
+        CompletableFuture<Void> done = queuedRefreshes.get(project);
+        try {
+            while (done != null && !disposed && (indicator == null || !indicator.isCanceled())) {
+                try {
+                    done.get(CANCEL_POLL_MS, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException ex) {
+                    // keep waiting
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            // never completed exceptionally
+        }
+    }
+
+    /**
+     * Refreshes the tokens of the enabled configurations expiring within the refresh threshold, reporting
+     * the progress on the given indicator, if any. It returns once completed, or soon after the indicator
+     * is cancelled. If another refresh is running, it waits for it first
+     *
+     * @param mavenServerIds if not null, only the configurations for these server ids are refreshed
+     */
+    public void refreshExpiringTokens(@Nullable ProgressIndicator indicator, @Nullable Set<String> mavenServerIds) {
+        if (!lockRefresh(indicator)) {
+            return;
+        }
+        try {
+            Configuration state = new Configuration();
+            long thresholdMs = TimeUnit.MINUTES.toMillis(state.getRefreshThresholdMinutes());
+            List<String> expiring = getExpiringConfigurations(state, thresholdMs, mavenServerIds);
+            if (!expiring.isEmpty() && !disposed) {
+                refresh(state, expiring, thresholdMs, indicator);
+            }
+        } finally {
+            refreshLock.unlock();
+            reschedule();
+        }
+    }
+
+    /**
+     * Waits until no other refresh is running, returning false if the indicator is cancelled meanwhile
+     */
+    private boolean lockRefresh(@Nullable ProgressIndicator indicator) {
+        try {
+            while (!refreshLock.tryLock(CANCEL_POLL_MS, TimeUnit.MILLISECONDS)) {
+                if (disposed || (indicator != null && indicator.isCanceled())) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void refresh(Configuration state,
+                         List<String> names,
+                         long thresholdMs,
+                         @Nullable ProgressIndicator indicator) {
+        HeadlessController controller = new HeadlessController();
+        if (indicator == null) {
+            refresh(state, names, thresholdMs, controller, null);
+            return;
+        }
+        Future<?> task = PluginExecutor.getInstance().submit("project token refresh",
+                () -> refresh(state, names, thresholdMs, controller, indicator));
+        // the indicator has no listeners: it is polled, to stop any aws process in flight once cancelled
+        try {
+            while (true) {
+                try {
+                    task.get(CANCEL_POLL_MS, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException ex) {
+                    if (indicator.isCanceled()) {
+                        controller.cancel();
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            controller.cancel();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            LOGGER.warn("Token refresh failed: " + ex.getCause());
+        }
+    }
+
+    private void wakeUp() {
+        synchronized (this) {
+            long wallClockElapsed = System.currentTimeMillis() - scheduledAtWallClock;
+            long monotonicElapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - scheduledAtNanos);
+            wakeUp = null;
+            if (Math.abs(wallClockElapsed - monotonicElapsed) > CLOCK_JUMP_TOLERANCE_MS) {
+                // the wakeup was computed with the old wall clock: any token already due is refreshed at once
+                LOGGER.info(String.format("Wall clock jumped %d s, rescheduling",
+                        TimeUnit.MILLISECONDS.toSeconds(wallClockElapsed - monotonicElapsed)));
+                reschedule();
+                return;
+            }
+        }
+        // the scheduler thread must not block: the refresh is done in the plugin executor, and it always
+        // reschedules, using the wall clock
+        PluginExecutor.getInstance().submit("background token refresh", this::refreshDueTokens);
+    }
+
+    private void refreshDueTokens() {
+        // a refresh in progress reschedules on completion
+        if (disposed || !refreshLock.tryLock()) {
+            return;
+        }
+        try {
+            Configuration state = new Configuration();
+            if (state.isBackgroundRefresh()) {
+                long leadMs = TimeUnit.MINUTES.toMillis(state.getBackgroundRefreshLeadMinutes());
+                long now = System.currentTimeMillis();
+                List<String> due = state.getConfigurationNames().stream()
+                        .filter(name -> getRefreshTime(state, name, leadMs) <= now)
+                        .collect(Collectors.toList());
+                if (!due.isEmpty()) {
+                    refresh(state, due, leadMs, new HeadlessController(), null);
+                }
+            }
+        } finally {
+            refreshLock.unlock();
+            reschedule();
+        }
+    }
+
+    /**
+     * Refreshes the given configurations, as many at once as the parallel generations option allows,
+     * writing the settings file once
+     */
+    private void refresh(Configuration state,
+                         List<String> names,
+                         long thresholdMs,
+                         HeadlessController controller,
+                         @Nullable ProgressIndicator indicator) {
+        TokenGenerator generator = new TokenGenerator(state, thresholdMs);
+        generator.startBatch(names.stream().map(name -> state.getConfiguration(name).mavenServerId)
+                .filter(Objects::nonNull).collect(Collectors.toSet()));
+        List<String> pending = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger started = new AtomicInteger();
+        Executor executor = PluginExecutor.getInstance().createBoundedExecutor(
+                "background token refresh", state.getParallelGenerations());
+        try {
+            // configurations sharing a profile are handled sequentially, as in the generation dialog
+            CompletableFuture.allOf(groupByProfile(state, names).stream().map(group ->
+                    CompletableFuture.runAsync(() -> {
+                        ProfileController profileController = new ProfileController(controller);
+                        for (String name : group) {
+                            if (controller.isCancelled()) {
+                                break;
+                            }
+                            if (indicator != null) {
+                                indicator.setText2("Configuration " + name);
+                                indicator.setFraction((double) started.getAndIncrement() / names.size());
+                            }
+                            refresh(state, name, generator, profileController, pending);
+                        }
+                    }, executor)).toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException ex) {
+            LOGGER.warn("Token refresh failed: " + ex.getCause());
+        } catch (RejectedExecutionException ex) {
+            return; // plugin unloaded
+        }
+        if (indicator != null) {
+            indicator.setText2(TokenGenerator.Phase.UPDATING_SETTINGS.description);
+            indicator.setFraction(1.0);
+        }
+        try {
+            generator.flush();
+            pending.forEach(failures::remove);
+        } catch (OperationException ex) {
+            pending.forEach(name -> registerFailure(state, name, ex.getMessage(), false));
+        }
+    }
+
+    private void refresh(Configuration state,
+                         String name,
+                         TokenGenerator generator,
+                         ProfileController controller,
+                         List<String> pending) {
+        controller.mfaRequested = false;
+        try {
+            TokenGenerator.Result result = generator.generate(name, state.getConfiguration(name), controller,
+                    phase -> { });
+            if (result.outcome != TokenGenerator.Outcome.CANCELLED) {
+                checkedUnknown.add(name);
+            }
+            if (result.outcome == TokenGenerator.Outcome.PENDING) {
+                pending.add(name);
+            } else if (result.outcome != TokenGenerator.Outcome.CANCELLED) {
+                failures.remove(name);
+            }
+        } catch (OperationException ex) {
+            checkedUnknown.add(name);
+            // if MFA is required, wait until the user generates the token explicitly
+            registerFailure(state, name, ex.getMessage(), controller.mfaRequested);
+        }
+    }
+
+    /**
+     * Returns the configuration names grouped by AWS profile, keeping their order
+     */
+    private static Collection<List<String>> groupByProfile(Configuration state, List<String> names) {
+        Map<String, List<String>> ret = new LinkedHashMap<>();
+        for (String name : names) {
+            String profile = state.getConfiguration(name).profile;
+            if (profile == null || profile.isBlank()) {
+                profile = AWSProfileHandler.DEFAULT_PROFILE;
+            }
+            ret.computeIfAbsent(profile, x -> new ArrayList<>()).add(name);
+        }
+        return ret.values();
+    }
+
+    private void registerFailure(Configuration state, String name, String error, boolean waitForUser) {
+        LOGGER.info(String.format("Background refresh of configuration %s failed: %s", name, error));
+        long retryAfter = waitForUser ? Long.MAX_VALUE : System.currentTimeMillis() + RETRY_DELAY_MS;
+        if (failures.put(name, new Failure(state.getGeneratedToken(name), retryAfter)) == null) {
+            notifyFailure(name, error);
+        }
+    }
+
+    private List<String> getExpiringConfigurations(Configuration state,
+                                                   long thresholdMs,
+                                                   @Nullable Set<String> mavenServerIds) {
+        long limit = System.currentTimeMillis() + thresholdMs;
+        return state.getConfigurationNames().stream().filter(name -> {
+            AwsConfiguration configuration = state.getConfiguration(name);
+            if (configuration == null || !configuration.enabled
+                    || (mavenServerIds != null && !mavenServerIds.contains(configuration.mavenServerId))) {
+                return false;
+            }
+            GeneratedToken token = state.getGeneratedToken(name);
+            // without a known token (not generated by the plugin), it is only checked once
+            return token == null ? !checkedUnknown.contains(name) : token.expiration <= limit;
+        }).collect(Collectors.toList());
+    }
+
+    private long getNextRefreshTime(Configuration state) {
+        long leadMs = TimeUnit.MINUTES.toMillis(state.getBackgroundRefreshLeadMinutes());
+        long ret = Long.MAX_VALUE;
+        for (String name : state.getConfigurationNames()) {
+            ret = Math.min(ret, getRefreshTime(state, name, leadMs));
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the time when the token for the given configuration must be refreshed,
+     * or Long.MAX_VALUE if there is nothing to refresh
+     */
+    private long getRefreshTime(Configuration state, String name, long leadMs) {
+        AwsConfiguration configuration = state.getConfiguration(name);
+        GeneratedToken token = state.getGeneratedToken(name);
+        if (configuration == null || !configuration.enabled || token == null) {
+            return Long.MAX_VALUE;
+        }
+        long ret = token.expiration - leadMs;
+        Failure failure = failures.get(name);
+        if (failure != null) {
+            if (failure.token == token) {
+                ret = Math.max(ret, failure.retryAfter);
+            } else {
+                failures.remove(name); // token generated since the failure
+            }
+        }
+        return ret;
+    }
+
+    private void notifyFailure(String name, String error) {
+        NotificationGroupManager.getInstance().getNotificationGroup(MainDialog.COMPONENT_TITLE)
+                .createNotification(String.format("Background refresh of configuration '%s' failed: %s", name, error),
+                        NotificationType.WARNING)
+                .addAction(NotificationAction.createSimpleExpiring("Generate auth tokens...",
+                        () -> new MainDialog(null).show()))
+                .notify(null);
+    }
+
+    private class HeadlessController implements AWSInvoker.BackgroundController {
+        private final Set<Runnable> listeners = ConcurrentHashMap.newKeySet();
+        private volatile boolean cancelled;
+
+        void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                listeners.forEach(Runnable::run);
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled || disposed;
+        }
+
+        @Override
+        public String requestMfaCode(String request) throws OperationException {
+            throw new OperationException("MFA code required, the token must be generated from the Tools menu");
+        }
+
+        @Override
+        public void addCancelListener(Runnable listener) {
+            // service listeners are called on dispose
+            listeners.add(listener);
+            cancelListeners.add(listener);
+            if (isCancelled()) {
+                listener.run();
+            }
+        }
+
+        @Override
+        public void removeCancelListener(Runnable listener) {
+            listeners.remove(listener);
+            cancelListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Controller for the configurations of one profile, refreshed sequentially, to know if the failed
+     * refresh required MFA. Cancelled with the refresh controller
+     */
+    private static class ProfileController implements AWSInvoker.BackgroundController {
+        private final HeadlessController controller;
+        volatile boolean mfaRequested;
+
+        ProfileController(HeadlessController controller) {
+            this.controller = controller;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return controller.isCancelled();
+        }
+
+        @Override
+        public String requestMfaCode(String request) throws OperationException {
+            mfaRequested = true;
+            return controller.requestMfaCode(request);
+        }
+
+        @Override
+        public void addCancelListener(Runnable listener) {
+            controller.addCancelListener(listener);
+        }
+
+        @Override
+        public void removeCancelListener(Runnable listener) {
+            controller.removeCancelListener(listener);
+        }
+    }
+
+    /**
+     * Starts the service on the first IDE activation, and checks the tokens again on each activation,
+     * as it follows usually a resume from suspension
+     */
+    public static class ActivationListener implements ApplicationActivationListener {
+        @Override
+        public void applicationActivated(@NotNull IdeFrame ideFrame) {
+            getInstance().reschedule();
+        }
+    }
+
+    private final static Logger LOGGER = Logger.getInstance(TokenRefreshService.class);
+}
@@ -1,14 +1,26 @@
 package net.coderazzi.aws_codeartifact_maven.state;
 
 import net.coderazzi.aws_codeartifact_maven.utils.AWSProfileHandler;
+import net.coderazzi.aws_codeartifact_maven.utils.TokenGenerator;
 import org.jetbrains.annotations.NotNull;
 
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-final public class Configuration {
+final public class Configuration implements TokenGenerator.GeneratedTokens {
     public static final String DEFAULT_AWS_CLI_PATH = "aws";
     public static final String DEFAULT_PROFILE_REGION = "<default profile region>";
+    public static final int DEFAULT_PARALLEL_GENERATIONS = 4;
+    public static final int MAX_PARALLEL_GENERATIONS = 16;
+    public static final int DEFAULT_REFRESH_THRESHOLD_MINUTES = 60;
+    public static final int MAX_REFRESH_THRESHOLD_MINUTES = 12 * 60;
+    public static final int DEFAULT_BACKGROUND_REFRESH_LEAD_MINUTES = 30;
+    public static final int MAX_BACKGROUND_REFRESH_LEAD_MINUTES = 6 * 60;
+    public static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 10;
+    public static final int MAX_CONNECT_TIMEOUT_SECONDS = 120;
+    public static final int DEFAULT_REQUEST_TIMEOUT_SECONDS = 120;
+    public static final int MAX_REQUEST_TIMEOUT_SECONDS = 15 * 60;
     private static final String DEFAULT_CONFIGURATION_NAME = "main";
     private static final int VERSION_2024NOV09 = 7;
     private static final String VALID_REGIONS = // 13 regions:
@@ -22,18 +34,29 @@ final public class Configuration {
 
     public Configuration(){
         state = PersistentState.getInstance();
-        ensureInitialization();
     }
 
     public static Set<String> getValidRegions() {
         return validRegions;
     }
 
-    private void ensureInitialization() {
+    /**
+     * Completes the given state, once loaded: defaults and migration from previous versions
+     */
+    static void initialize(PersistentState state) {
         // store profiles and maven server ids as sets, but manage them as treesets
         // (json for treeset not properly handled)
         state.allProfiles = state.allProfiles==null? new TreeSet<>() : new TreeSet<>(state.allProfiles);
         state.allMavenServerIds = state.allMavenServerIds==null? new TreeSet<>() : new TreeSet<>(state.allMavenServerIds);
+        // generated tokens are updated from the generation threads
+        if (!(state.generatedTokens instanceof ConcurrentHashMap)) {
+            state.generatedTokens = state.generatedTokens == null ? new ConcurrentHashMap<>()
+                    : new ConcurrentHashMap<>(state.generatedTokens);
+        }
+        if (!(state.generationHistory instanceof ConcurrentHashMap)) {
+            state.generationHistory = state.generationHistory == null ? new ConcurrentHashMap<>()
+                    : new ConcurrentHashMap<>(state.generationHistory);
+        }
         if (state.domains == null) state.domains = new HashMap<>();
         if (state.regions == null) state.regions = new HashMap<>();
         if (state.domainOwners == null) state.domainOwners = new HashMap<>();
@@ -48,6 +71,21 @@ final public class Configuration {
         if (state.awsPath == null) {
             state.awsPath = DEFAULT_AWS_CLI_PATH;
         }
+        if (state.parallelGenerations <= 0) {
+            state.parallelGenerations = DEFAULT_PARALLEL_GENERATIONS;
+        }
+        if (state.refreshThresholdMinutes <= 0) {
+            state.refreshThresholdMinutes = DEFAULT_REFRESH_THRESHOLD_MINUTES;
+        }
+        if (state.backgroundRefreshLeadMinutes <= 0) {
+            state.backgroundRefreshLeadMinutes = DEFAULT_BACKGROUND_REFRESH_LEAD_MINUTES;
+        }
+        if (state.connectTimeoutSeconds <= 0) {
+            state.connectTimeoutSeconds = DEFAULT_CONNECT_TIMEOUT_SECONDS;
+        }
+        if (state.requestTimeoutSeconds <= 0) {
+            state.requestTimeoutSeconds = DEFAULT_REQUEST_TIMEOUT_SECONDS;
+        }
         if (state.awsProfile == null || state.awsProfile.isEmpty()) {
             String envAwsProfile = System.getenv("AWS_PROFILE");
             if (envAwsProfile != null) {
@@ -169,6 +207,165 @@ final public class Configuration {
         state.generateForAll = generateForAll;
     }
 
+    /**
+     * Maximum number of configurations whose tokens are generated at the same time.
+     * Configurations sharing the same profile are always handled one after the other.
+     */
+    public int getParallelGenerations() {
+        return state.parallelGenerations;
+    }
+
+    public void setParallelGenerations(int parallelGenerations) {
+        state.parallelGenerations = Math.max(1, Math.min(MAX_PARALLEL_GENERATIONS, parallelGenerations));
+    }
+
+
+    /**
+     * Tokens are not requested again while their remaining validity exceeds this threshold
+     */
+    public int getRefreshThresholdMinutes() {
+        return state.refreshThresholdMinutes;
+    }
+
+    public void setRefreshThresholdMinutes(int refreshThresholdMinutes) {
+        state.refreshThresholdMinutes = Math.max(1, Math.min(MAX_REFRESH_THRESHOLD_MINUTES, refreshThresholdMinutes));
+    }
+
+    /**
+     * If enabled, tokens generated by the plugin are refreshed in the background before they expire
+     */
+    public boolean isBackgroundRefresh() {
+        return state.backgroundRefresh;
+    }
+
+    public void setBackgroundRefresh(boolean backgroundRefresh) {
+        state.backgroundRefresh = backgroundRefresh;
+    }
+
+    /**
+     * If enabled, tokens expiring within the refresh threshold are refreshed when a project is opened
+     */
+    public boolean isRefreshOnProjectOpen() {
+        return state.refreshOnProjectOpen;
+    }
+
+    public void setRefreshOnProjectOpen(boolean refreshOnProjectOpen) {
+        state.refreshOnProjectOpen = refreshOnProjectOpen;
+    }
+
+    /**
+     * If enabled, tokens expiring within the refresh threshold are refreshed before maven builds and imports,
+     * for the maven server ids that the project uses. Only applicable if the maven plugin is installed
+     */
+    public boolean isRefreshBeforeMaven() {
+        return state.refreshBeforeMaven;
+    }
+
+    public void setRefreshBeforeMaven(boolean refreshBeforeMaven) {
+        state.refreshBeforeMaven = refreshBeforeMaven;
+    }
+
+    public int getBackgroundRefreshLeadMinutes() {
+        return state.backgroundRefreshLeadMinutes;
+    }
+
+    public void setBackgroundRefreshLeadMinutes(int leadMinutes) {
+        state.backgroundRefreshLeadMinutes = Math.max(1, Math.min(MAX_BACKGROUND_REFRESH_LEAD_MINUTES, leadMinutes));
+    }
+
+    /**
+     * If enabled, tokens are requested directly to AWS, the aws cli being used only for profiles
+     * not defining static credentials
+     */
+    public boolean isNativeClient() {
+        return state.nativeClient;
+    }
+
+    public void setNativeClient(boolean nativeClient) {
+        state.nativeClient = nativeClient;
+    }
+
+    /**
+     * CodeArtifact endpoint used by the native client; empty to use the regional AWS endpoint
+     */
+    public String getEndpointUrl() {
+        return state.endpointUrl == null ? "" : state.endpointUrl;
+    }
+
+    public void setEndpointUrl(@NotNull String endpointUrl) {
+        state.endpointUrl = endpointUrl;
+    }
+
+    /**
+     * Timeout for the aws cli or the native client to connect to AWS
+     */
+    public int getConnectTimeoutSeconds() {
+        return state.connectTimeoutSeconds;
+    }
+
+    public void setConnectTimeoutSeconds(int connectTimeoutSeconds) {
+        state.connectTimeoutSeconds = Math.max(1, Math.min(MAX_CONNECT_TIMEOUT_SECONDS, connectTimeoutSeconds));
+    }
+
+    /**
+     * Maximum time for each token request; the aws cli is killed afterwards
+     */
+    public int getRequestTimeoutSeconds() {
+        return state.requestTimeoutSeconds;
+    }
+
+    public void setRequestTimeoutSeconds(int requestTimeoutSeconds) {
+        state.requestTimeoutSeconds = Math.max(1, Math.min(MAX_REQUEST_TIMEOUT_SECONDS, requestTimeoutSeconds));
+    }
+
+    /**
+     * If enabled, tokens are shared with other IDE instances through a cache under the user home
+     */
+    public boolean isSharedTokenCache() {
+        return state.sharedTokenCache;
+    }
+
+    public void setSharedTokenCache(boolean sharedTokenCache) {
+        state.sharedTokenCache = sharedTokenCache;
+    }
+
+    /**
+     * If enabled, tokens are requested as soon as the main dialog opens, to be used if the user
+     * generates them without changing the configurations
+     */
+    public boolean isTokenPrefetch() {
+        return state.tokenPrefetch;
+    }
+
+    public void setTokenPrefetch(boolean tokenPrefetch) {
+        state.tokenPrefetch = tokenPrefetch;
+    }
+
+    @Override
+    public GeneratedToken getGeneratedToken(String configurationName) {
+        return state.generatedTokens.get(configurationName);
+    }
+
+    @Override
+    public void setGeneratedToken(String configurationName, GeneratedToken token) {
+        state.generatedTokens.put(configurationName, token);
+    }
+
+    @Override
+    public void addGenerationRun(String configurationName, GenerationRun run) {
+        state.generationHistory.computeIfAbsent(configurationName, x -> new GenerationHistory()).add(run);
+    }
+
+    /**
+     * Returns the last generation runs for the given configuration, null if there are none
+     */
+    public GenerationHistory getGenerationHistory(String configurationName) {
+        return state.generationHistory.get(configurationName);
+    }
+
+    public void clearGenerationHistory() {
+        state.generationHistory.clear();
+    }
 
     public void addConfiguration(String name) {
         AwsConfiguration current = getCurrentConfiguration();
@@ -189,12 +386,22 @@ final public class Configuration {
         }
         state.awsConfigurations.put(newName, state.awsConfigurations.get(state.configuration));
         state.awsConfigurations.remove(state.configuration);
+        GeneratedToken token = state.generatedTokens.remove(state.configuration);
+        if (token != null) {
+            state.generatedTokens.put(newName, token);
+        }
+        GenerationHistory history = state.generationHistory.remove(state.configuration);
+        if (history != null) {
+            state.generationHistory.put(newName, history);
+        }
         state.configuration = newName;
         return true;
     }
 
     public void deleteConfiguration(){
         state.awsConfigurations.remove(state.configuration);
+        state.generatedTokens.remove(state.configuration);
+        state.generationHistory.remove(state.configuration);
         state.configuration = state.awsConfigurations.keySet().iterator().next();
     }
 
@@ -0,0 +1,54 @@
+package net.coderazzi.aws_codeartifact_maven.state;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Information on the last token written to the settings file for a given configuration.
+ * The token itself is not stored, only its hash, to check that the settings file still contains it
+ */
+public class GeneratedToken {
+    public long expiration;
+    public String fingerprint;
+    public String tokenHash;
+
+    public GeneratedToken() {
+    }
+
+    public GeneratedToken(long expiration, String fingerprint, String token) {
+        this.expiration = expiration;
+        this.fingerprint = fingerprint;
+        this.tokenHash = hash(token);
+    }
+
+    /**
+     * Returns the milliseconds left until the token expires, or 0 if the token is not
+     * associated anymore to the given fingerprint / password in the settings file
+     */
+    public long remainingValidity(String fingerprint, String currentPassword) {
+        if (fingerprint.equals(this.fingerprint) && currentPassword != null
+                && hash(currentPassword).equals(tokenHash)) {
+            return Math.max(0, expiration - System.currentTimeMillis());
+        }
+        return 0;
+    }
+
+    /**
+     * Identifies the settings file, server id and AWS request associated to a configuration
+     */
+    public static String fingerprint(String mavenSettingsFile, AwsConfiguration configuration) {
+        return String.join("|", mavenSettingsFile, configuration.mavenServerId, configuration.domain,
+                configuration.domainOwner, String.valueOf(configuration.profile), String.valueOf(configuration.region));
+    }
+
+    private static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
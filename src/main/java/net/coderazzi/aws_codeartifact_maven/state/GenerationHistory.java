@@ -0,0 +1,38 @@
+package net.coderazzi.aws_codeartifact_maven.state;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Last generation runs for a configuration, oldest first
+ */
+public class GenerationHistory {
+    public static final int MAX_RUNS = 50;
+
+    public List<GenerationRun> runs = new ArrayList<>();
+
+    public synchronized void add(GenerationRun run) {
+        runs.add(run);
+        if (runs.size() > MAX_RUNS) {
+            runs = new ArrayList<>(runs.subList(runs.size() - MAX_RUNS, runs.size()));
+        }
+    }
+
+    public synchronized List<GenerationRun> copyRuns() {
+        return new ArrayList<>(runs);
+    }
+
+    /**
+     * Returns the given percentile (nearest rank) of the runs that requested a token, or -1 if there are none.
+     * Runs where the token was still valid are not considered, they would hide the AWS requests
+     */
+    public long percentile(int percent, ToLongFunction<GenerationRun> value) {
+        long[] values = copyRuns().stream().filter(run -> run.tokenRequested).mapToLong(value).sorted().toArray();
+        if (values.length == 0) {
+            return -1;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * values.length);
+        return values[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,58 @@
+package net.coderazzi.aws_codeartifact_maven.state;
+
+import net.coderazzi.aws_codeartifact_maven.utils.TokenGenerator;
+
+/**
+ * Durations, in milliseconds, of the phases of a token generation for a configuration
+ */
+public class GenerationRun {
+    public static final String FAILED = "FAILED";
+    public static final String TIMED_OUT = "TIMED_OUT";
+
+    public long started;
+    /**
+     * One of the TokenGenerator.Outcome names, FAILED or TIMED_OUT
+     */
+    public String outcome;
+    public boolean tokenRequested;
+    public long validatingMs;
+    public long checkingSettingsMs;
+    public long obtainingTokenMs;
+    public long updatingSettingsMs;
+
+    public GenerationRun() {
+    }
+
+    public GenerationRun(long started) {
+        this.started = started;
+    }
+
+    public void addDuration(TokenGenerator.Phase phase, long ms) {
+        switch (phase) {
+            case VALIDATING -> validatingMs += ms;
+            case CHECKING_SETTINGS -> checkingSettingsMs += ms;
+            case OBTAINING_TOKEN -> {
+                obtainingTokenMs += ms;
+                tokenRequested = true;
+            }
+            case UPDATING_SETTINGS -> updatingSettingsMs += ms;
+        }
+    }
+
+    public long duration(TokenGenerator.Phase phase) {
+        return switch (phase) {
+            case VALIDATING -> validatingMs;
+            case CHECKING_SETTINGS -> checkingSettingsMs;
+            case OBTAINING_TOKEN -> obtainingTokenMs;
+            case UPDATING_SETTINGS -> updatingSettingsMs;
+        };
+    }
+
+    public long totalMs() {
+        return validatingMs + checkingSettingsMs + obtainingTokenMs + updatingSettingsMs;
+    }
+
+    public boolean hasFailed() {
+        return FAILED.equals(outcome) || TIMED_OUT.equals(outcome);
+    }
+}
@@ -17,11 +17,25 @@ final class PersistentState implements PersistentStateComponent<PersistentState>
     public String mavenSettingsFile;
     public String awsPath;
     public boolean generateForAll;
+    public int parallelGenerations;
+    public int refreshThresholdMinutes;
+    public boolean backgroundRefresh;
+    public int backgroundRefreshLeadMinutes;
+    public boolean refreshOnProjectOpen;
+    public boolean refreshBeforeMaven;
+    public boolean nativeClient;
+    public String endpointUrl;
+    public int connectTimeoutSeconds;
+    public int requestTimeoutSeconds;
+    public boolean sharedTokenCache;
+    public boolean tokenPrefetch;
     public String configuration;
 
     public Set<String> allProfiles;
     public Set<String> allMavenServerIds;
     public Map<String, AwsConfiguration> awsConfigurations;
+    public Map<String, GeneratedToken> generatedTokens;
+    public Map<String, GenerationHistory> generationHistory;
 
     //next fields are obsolete since version 7 (2024Nov09)
     public String mavenServerId;
@@ -30,16 +44,36 @@ final class PersistentState implements PersistentStateComponent<PersistentState>
     public Map<String, String> domains;
     public Map<String, String> domainOwners;
 
+    private boolean initialized;
+
     public PersistentState getState() {
         return this;
     }
 
-    public void loadState(@NotNull PersistentState state) {
+    public synchronized void loadState(@NotNull PersistentState state) {
         XmlSerializerUtil.copyBean(state, this);
+        initialized = false;
+        ensureInitialized();
+    }
+
+    public void noStateLoaded() {
+        ensureInitialized();
+    }
+
+    /**
+     * The state is initialized only once, and not on each access, as it is shared by the UI and background threads
+     */
+    private synchronized void ensureInitialized() {
+        if (!initialized) {
+            Configuration.initialize(this);
+            initialized = true;
+        }
     }
 
     public static PersistentState getInstance() {
-        return ApplicationManager.getApplication().getService(PersistentState.class);
+        PersistentState ret = ApplicationManager.getApplication().getService(PersistentState.class);
+        ret.ensureInitialized();
+        return ret;
     }
 
 }
@@ -3,49 +3,325 @@ package net.coderazzi.aws_codeartifact_maven.utils;
 import com.intellij.openapi.diagnostic.Logger;
 import net.coderazzi.aws_codeartifact_maven.state.Configuration;
 
-import java.io.*;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class AWSInvoker {
+public class AWSInvoker implements AuthTokenInvoker {
 
     public interface BackgroundController {
         boolean isCancelled();
         String requestMfaCode(String request) throws OperationException;
+
+        /**
+         * Registers a listener to be notified as soon as the operation is cancelled.
+         * If already cancelled, the listener must be notified immediately
+         */
+        void addCancelListener(Runnable listener);
+
+        void removeCancelListener(Runnable listener);
+    }
+
+    /**
+     * Event handled while the process runs: its completion, the cancellation, or a MFA request
+     */
+    private static class ProcessEvent {
+        static final ProcessEvent EXITED = new ProcessEvent(null);
+        static final ProcessEvent CANCELLED = new ProcessEvent(null);
+
+        final String mfaRequest;
+
+        ProcessEvent(String mfaRequest) {
+            this.mfaRequest = mfaRequest;
+        }
+    }
+
+    /**
+     * Credentials resolved for a profile, reused by the following invocations until they expire.
+     * They are only kept in memory.
+     */
+    private static class CredentialSession {
+        // the credentials must remain valid while the token is being requested
+        private static final long EXPIRATION_MARGIN_MS = 5 * 60 * 1000;
+        private static final Pattern ACCESS_KEY_PATTERN = Pattern.compile("\"AccessKeyId\"\\s*:\\s*\"([^\"]+)\"");
+        private static final Pattern SECRET_KEY_PATTERN = Pattern.compile("\"SecretAccessKey\"\\s*:\\s*\"([^\"]+)\"");
+        private static final Pattern SESSION_TOKEN_PATTERN = Pattern.compile("\"SessionToken\"\\s*:\\s*\"([^\"]+)\"");
+        private static final Pattern EXPIRATION_PATTERN = Pattern.compile("\"Expiration\"\\s*:\\s*\"([^\"]+)\"");
+
+        final Map<String, String> properties;
+        final String accessKeyId, secretAccessKey, sessionToken;
+        final long expiration;
+
+        CredentialSession(Map<String, String> properties, String json) throws OperationException {
+            this.properties = properties;
+            this.accessKeyId = find(ACCESS_KEY_PATTERN, json);
+            this.secretAccessKey = find(SECRET_KEY_PATTERN, json);
+            this.sessionToken = find(SESSION_TOKEN_PATTERN, json);
+            if (accessKeyId == null || secretAccessKey == null) {
+                throw new OperationException("Unexpected output from AWS command, no credentials found");
+            }
+            long expiration = 0;
+            String expirationText = find(EXPIRATION_PATTERN, json);
+            if (expirationText != null) {
+                try {
+                    expiration = OffsetDateTime.parse(expirationText).toInstant().toEpochMilli();
+                } catch (DateTimeParseException ex) {
+                    // expiration is then just unknown, and the session is not reused
+                }
+            }
+            this.expiration = expiration;
+        }
+
+        /**
+         * The session is not reused if the profile definition has changed since it was resolved
+         */
+        boolean isValid(Map<String, String> properties) {
+            return System.currentTimeMillis() < expiration - EXPIRATION_MARGIN_MS && this.properties.equals(properties);
+        }
+
+        /**
+         * Sets up the environment of an aws invocation, that must not specify then any profile
+         */
+        void setEnvironment(Map<String, String> environment) {
+            environment.remove("AWS_PROFILE");
+            environment.put("AWS_ACCESS_KEY_ID", accessKeyId);
+            environment.put("AWS_SECRET_ACCESS_KEY", secretAccessKey);
+            if (sessionToken == null) {
+                environment.remove("AWS_SESSION_TOKEN");
+            } else {
+                environment.put("AWS_SESSION_TOKEN", sessionToken);
+            }
+            // the settings of the profile that still apply, once it is not specified
+            PROFILE_ENVIRONMENT.forEach((property, variable) -> {
+                String value = properties.get(property);
+                if (value != null && !value.isBlank()) {
+                    environment.put(variable, value.trim());
+                }
+            });
+        }
+
+        private static String find(Pattern pattern, String json) {
+            Matcher m = pattern.matcher(json);
+            return m.find() ? m.group(1) : null;
+        }
+    }
+
+    /**
+     * Raised when the invocation is cancelled
+     */
+    private static class CancelledException extends Exception {
     }
 
+    // the json output is small, the error output is only kept for diagnostics
+    private static final int OUTPUT_CAPACITY = 256 * 1024;
+    private static final int ERROR_CAPACITY = 64 * 1024;
+    private static final Map<String, String> PROFILE_ENVIRONMENT = Map.of(
+            "region", "AWS_REGION",
+            "ca_bundle", "AWS_CA_BUNDLE");
 
-    public static String getAuthToken(String domain,
-                                      String domainOwner,
-                                      String awsPath,
-                                      Object awsProfile,
-                                      String awsRegion,
-                                      BackgroundController controller) throws OperationException {
+    /**
+     * Credential sessions, per profile (empty string for the default one)
+     */
+    private static final Map<String, CredentialSession> SESSIONS = new ConcurrentHashMap<>();
+    private static final Map<String, ReentrantLock> SESSION_LOCKS = new ConcurrentHashMap<>();
+    /**
+     * aws executables not supporting export-credentials (aws cli v1, or v2 before 2.9)
+     */
+    private static final Set<String> UNSUPPORTED_EXPORTS = ConcurrentHashMap.newKeySet();
+
+    private final String awsPath;
+    private final int connectTimeoutSeconds;
+    private final int requestTimeoutSeconds;
+
+    /**
+     * @param connectTimeoutSeconds timeout for the aws cli to connect to AWS
+     * @param requestTimeoutSeconds maximum time for each aws process; it is killed afterwards. The time
+     *                              waiting for the user to enter an MFA code is not accounted
+     */
+    public AWSInvoker(String awsPath, int connectTimeoutSeconds, int requestTimeoutSeconds) {
+        this.awsPath = awsPath;
+        this.connectTimeoutSeconds = connectTimeoutSeconds;
+        this.requestTimeoutSeconds = requestTimeoutSeconds;
+    }
+
+    @Override
+    public AuthToken getAuthToken(String domain,
+                                  String domainOwner,
+                                  String awsProfile,
+                                  String awsRegion,
+                                  BackgroundController controller) throws OperationException {
         String profile = getProfile(awsProfile);
-        List<String> commandParams = getCommandParameters(domain, domainOwner, awsPath, awsRegion, profile);
         try {
-            LOGGER.debug(String.join(" ", commandParams));
-            Process process = Runtime.getRuntime().exec(commandParams.toArray(new String[0]));
-            ProcessReader inputReader = new ProcessReader(process.getInputStream());
-            ProcessReader outputReader = new ProcessReader(process.getErrorStream());
-            while (!process.waitFor(100, TimeUnit.MILLISECONDS)) {
-                if (controller.isCancelled()) {
-                    process.destroy();
+            CredentialSession session = getCredentialSession(profile, controller);
+            List<String> commandParams = getCommandParameters(domain, domainOwner, awsPath, awsRegion,
+                    session == null ? profile : null);
+            addTimeoutParameters(commandParams);
+            try {
+                return AuthToken.parse(execute(commandParams, session, profile, controller));
+            } catch (OperationException ex) {
+                if (session != null) {
+                    // the credentials could have been revoked: they are resolved again on next request
+                    SESSIONS.remove(getSessionKey(profile), session);
+                }
+                throw ex;
+            }
+        } catch (CancelledException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the credential session to use for the profile, resolving it if needed.
+     * Returns null if the profile does not require resolving credentials, or if they cannot be exported.
+     */
+    private CredentialSession getCredentialSession(String profile, BackgroundController controller)
+            throws OperationException, CancelledException {
+        Map<String, String> properties = getResolvedProfileProperties(profile);
+        if (properties == null || UNSUPPORTED_EXPORTS.contains(awsPath)) {
+            return null;
+        }
+        String key = getSessionKey(profile);
+        // configurations sharing a profile wait for a single resolution (and a single MFA request)
+        ReentrantLock lock = SESSION_LOCKS.computeIfAbsent(key, x -> new ReentrantLock());
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException ex) {
+            throw new CancelledException();
+        }
+        try {
+            CredentialSession ret = SESSIONS.get(key);
+            if (ret != null && ret.isValid(properties)) {
+                return ret;
+            }
+            if (UNSUPPORTED_EXPORTS.contains(awsPath)) {
+                return null;
+            }
+            SESSIONS.remove(key);
+            List<String> commandParams = new ArrayList<>(List.of(awsPath, "configure", "export-credentials",
+                    "--format", "process"));
+            addTimeoutParameters(commandParams);
+            if (profile != null) {
+                commandParams.add("--profile");
+                commandParams.add(profile);
+            }
+            try {
+                ret = new CredentialSession(properties, execute(commandParams, null, profile, controller));
+            } catch (OperationException ex) {
+                if (ex.getMessage().contains("Invalid choice")) {
+                    LOGGER.info("Credentials cannot be exported with " + awsPath + ", resolved on each invocation");
+                    UNSUPPORTED_EXPORTS.add(awsPath);
                     return null;
                 }
-                String mfaRequest = outputReader.getMfaCodeRequest();
-                if (mfaRequest != null) {
-                    String mfaCode = controller.requestMfaCode(mfaRequest);
-                    if (mfaCode == null) {
-                        process.destroy();
-                        return null;
+                throw ex;
+            }
+            if (ret.isValid(properties)) {
+                SESSIONS.put(key, ret);
+            }
+            return ret;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the properties of the profile, if its credentials must be resolved (roles, SSO...), or null otherwise
+     */
+    private static Map<String, String> getResolvedProfileProperties(String profile) {
+        if (profile == null) {
+            // same precedence as the aws cli: environment credentials, then AWS_PROFILE or default profile
+            String accessKey = System.getenv("AWS_ACCESS_KEY_ID");
+            if (accessKey != null && !accessKey.isBlank()) {
+                return null;
+            }
+            String envProfile = System.getenv("AWS_PROFILE");
+            profile = envProfile == null || envProfile.isBlank() ? AWSProfileHandler.DEFAULT_PROFILE : envProfile;
+        }
+        Map<String, String> ret = AWSProfileHandler.getProfileProperties(profile);
+        return AWSProfileHandler.hasResolvedCredentials(ret) ? ret : null;
+    }
+
+    private static String getSessionKey(String profile) {
+        return profile == null ? "" : profile;
+    }
+
+    /**
+     * Runs the aws command, returning its output
+     */
+    private String execute(List<String> commandParams,
+                           CredentialSession session,
+                           String profile,
+                           BackgroundController controller) throws OperationException, CancelledException {
+        try {
+            LOGGER.debug(String.join(" ", commandParams));
+            ProcessBuilder builder = new ProcessBuilder(commandParams);
+            if (session != null) {
+                session.setEnvironment(builder.environment());
+            }
+            Process process = builder.start();
+            // the MFA requests, the process completion and the cancellation are all pushed to the queue
+            BlockingQueue<ProcessEvent> events = new LinkedBlockingQueue<>();
+            ProcessReader inputReader, outputReader;
+            try {
+                inputReader = new ProcessReader(process.getInputStream(), OUTPUT_CAPACITY, null);
+                outputReader = new ProcessReader(process.getErrorStream(), ERROR_CAPACITY,
+                        request -> events.add(new ProcessEvent(request)));
+            } catch (RuntimeException ex) {
+                // readers rejected (plugin being unloaded): the process must not be left running
+                destroyProcessTree(process);
+                throw ex;
+            }
+            process.onExit().thenRun(() -> events.add(ProcessEvent.EXITED));
+            Runnable cancelListener = () -> events.add(ProcessEvent.CANCELLED);
+            controller.addCancelListener(cancelListener);
+            // the process is killed if it does not complete in time, whatever the cli is waiting for
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(requestTimeoutSeconds);
+            try {
+                while (true) {
+                    ProcessEvent event = events.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (event == null) {
+                        destroyProcessTree(process);
+                        LOGGER.info(String.join(" ", commandParams) + " killed after " + requestTimeoutSeconds + " s");
+                        throw new TimeoutOperationException(requestTimeoutSeconds);
+                    }
+                    if (event == ProcessEvent.EXITED) {
+                        break;
+                    }
+                    if (event == ProcessEvent.CANCELLED) {
+                        destroyProcessTree(process);
+                        throw new CancelledException();
+                    }
+                    String mfaCode;
+                    long mfaRequested = System.nanoTime();
+                    try {
+                        mfaCode = controller.requestMfaCode(event.mfaRequest);
+                    } catch (OperationException ex) {
+                        destroyProcessTree(process);
+                        throw ex;
+                    }
+                    deadline += System.nanoTime() - mfaRequested;
+                    if (mfaCode == null || controller.isCancelled()) {
+                        destroyProcessTree(process);
+                        throw new CancelledException();
                     }
                     process.getOutputStream().write((mfaCode + "\n").getBytes(ENCODING));
                     process.getOutputStream().flush();
                 }
+            } catch (InterruptedException ex) {
+                destroyProcessTree(process);
+                throw new CancelledException();
+            } finally {
+                controller.removeCancelListener(cancelListener);
             }
             if (process.exitValue() == 0) {
                 String ret = inputReader.getOutput();
@@ -56,16 +332,25 @@ public class AWSInvoker {
             }
             String error = outputReader.getOutput();
             if (error == null) {
-                error = "Auth token request failed without additional information";
-            } else {
-                error = error.trim();
-                if (profile != null && error.contains("aws configure")) {
-                    error += "\n\n You could also consider \"aws configure --profile " + profile + "\"";
-                }
+                throw new OperationException("AWS command failed without additional information");
             }
-            throw new OperationException(error);
-        } catch (OperationException oex) {
-            throw oex;
+            error = error.trim();
+            // the timeouts given to the cli are not retried, as when the process is killed
+            String lowerError = error.toLowerCase(Locale.ROOT);
+            if (lowerError.contains("read timeout on endpoint")) {
+                throw new TimeoutOperationException(requestTimeoutSeconds);
+            }
+            if (lowerError.contains("connect timeout on endpoint")) {
+                throw new TimeoutOperationException(connectTimeoutSeconds);
+            }
+            // throttling or network errors are reported by the cli only on its error output
+            boolean transientError = TransientOperationException.isTransientError(error);
+            if (profile != null && error.contains("aws configure")) {
+                error += "\n\n You could also consider \"aws configure --profile " + profile + "\"";
+            }
+            throw transientError ? new TransientOperationException(error) : new OperationException(error);
+        } catch (OperationException | CancelledException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new OperationException("Error executing aws:" + ex.getMessage());
         }
@@ -84,11 +369,10 @@ public class AWSInvoker {
         commandParams.add(domain);
         commandParams.add("--domain-owner");
         commandParams.add(domainOwner);
-        commandParams.add("--query");
-        commandParams.add("authorizationToken");
+        // json output includes the token expiration
         commandParams.add("--output");
-        commandParams.add("text");
-        // Do not send the profile if awsProfile is null or default
+        commandParams.add("json");
+        // Do not send the profile if awsProfile is null or default, or if its credentials are already resolved
         if (profile != null) {
             commandParams.add("--profile");
             commandParams.add(profile);
@@ -100,73 +384,33 @@ public class AWSInvoker {
         return commandParams;
     }
 
-    private static String getProfile(Object awsProfile) {
-        if (awsProfile == null || "".equals(awsProfile) || awsProfile.equals(AWSProfileHandler.DEFAULT_PROFILE)) {
-            return null;
-        }
-        return awsProfile.toString();
+    /**
+     * The cli fails by itself on connection or read timeouts, before the process must be killed
+     */
+    private void addTimeoutParameters(List<String> commandParams) {
+        commandParams.add("--cli-connect-timeout");
+        commandParams.add(String.valueOf(connectTimeoutSeconds));
+        commandParams.add("--cli-read-timeout");
+        commandParams.add(String.valueOf(requestTimeoutSeconds));
     }
 
-    private static class ProcessReader implements Runnable {
-        private final InputStream inputStream;
-        private final Thread thread;
-        private final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        private final Pattern mfaPattern = Pattern.compile(".*?(Enter MFA code for \\S+\\s)$", Pattern.DOTALL);
-
-        public ProcessReader(InputStream inputStream) {
-            this.inputStream = inputStream;
-            this.thread = new Thread(this);
-            this.thread.start();
-        }
-
-        public String getOutput() {
-            try {
-                this.thread.join();
-            } catch (InterruptedException ex) {
-                // thread interrupted, app being stopped, nothing else to do here
-            }
-            String read = getRead();
-            return read.isEmpty() ? null : read;
-        }
+    /**
+     * Kills the process and any process it has started, like credential helpers
+     */
+    private static void destroyProcessTree(Process process) {
+        // descendants must be collected while the process is still alive
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
 
-        public synchronized String getMfaCodeRequest() {
-            Matcher m = mfaPattern.matcher(getRead());
-            if (m.matches()) {
-                byteArrayOutputStream.reset();
-                return m.group(1);
-            }
+    /**
+     * Returns the profile to use, or null if the default profile is used
+     */
+    static String getProfile(Object awsProfile) {
+        if (awsProfile == null || "".equals(awsProfile) || awsProfile.equals(AWSProfileHandler.DEFAULT_PROFILE)) {
             return null;
         }
-
-        @Override
-        public void run() {
-            try {
-                while (true) {
-                    int b = inputStream.read();
-                    if (b == -1) {
-                        break;
-                    }
-                    byteArrayOutputStream.write(b);
-                }
-            } catch (IOException ex) {
-                try {
-                    byte[] b = "Error reading AWS output".getBytes(ENCODING);
-                    byteArrayOutputStream.reset();
-                    byteArrayOutputStream.write(b, 0, b.length);
-                } catch (UnsupportedEncodingException uex) {
-                    LOGGER.error(uex);
-                }
-            }
-        }
-
-        private String getRead() {
-            try {
-                return byteArrayOutputStream.toString(ENCODING);
-            } catch (UnsupportedEncodingException ex) {
-                LOGGER.error(ex);
-                return "";
-            }
-        }
+        return awsProfile.toString();
     }
 
     private final static Logger LOGGER = Logger.getInstance(AWSInvoker.class);
@@ -0,0 +1,292 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+import com.intellij.openapi.diagnostic.Logger;
+import net.coderazzi.aws_codeartifact_maven.state.Configuration;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Requests the auth token directly to CodeArtifact, signing the request with AWS Signature Version 4.
+ * Only static or session credentials, defined in the AWS files or in the environment, are supported:
+ * any other profile (roles, SSO, credential processes...) is delegated to the aws cli.
+ */
+public class AWSNativeInvoker implements AuthTokenInvoker {
+
+    private static final String SERVICE = "codeartifact";
+    private static final String PATH = "/v1/authorization-token";
+    private static final String DEFAULT_SIGNING_REGION = "us-east-1";
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+    private static final Pattern ERROR_MESSAGE_PATTERN =
+            Pattern.compile("\"[mM]essage\"\\s*:\\s*\"([^\"]*)\"");
+    /**
+     * Clients per connection timeout, in seconds: the timeout is fixed for each client
+     */
+    private static final Map<Integer, HttpClient> HTTP_CLIENTS = new ConcurrentHashMap<>();
+
+    private static class Credentials {
+        final String accessKeyId, secretAccessKey, sessionToken;
+
+        Credentials(String accessKeyId, String secretAccessKey, String sessionToken) {
+            this.accessKeyId = accessKeyId;
+            this.secretAccessKey = secretAccessKey;
+            this.sessionToken = sessionToken == null || sessionToken.isBlank() ? null : sessionToken;
+        }
+    }
+
+    /**
+     * Raised when the profile cannot be handled natively
+     */
+    private static class UnsupportedProfileException extends Exception {
+        UnsupportedProfileException(String reason) {
+            super(reason);
+        }
+    }
+
+    private final String endpointUrl;
+    private final AuthTokenInvoker fallback;
+    private final HttpClient httpClient;
+    private final int connectTimeoutSeconds;
+    private final int requestTimeoutSeconds;
+
+    /**
+     * @param endpointUrl           the CodeArtifact endpoint, or null to use the default regional endpoint
+     * @param fallback              invoker used for the profiles that cannot be handled natively
+     * @param connectTimeoutSeconds timeout to connect to the endpoint
+     * @param requestTimeoutSeconds maximum time for the whole request
+     */
+    public AWSNativeInvoker(String endpointUrl,
+                            AuthTokenInvoker fallback,
+                            int connectTimeoutSeconds,
+                            int requestTimeoutSeconds) {
+        this.endpointUrl = endpointUrl == null || endpointUrl.isBlank() ? null : endpointUrl.trim();
+        this.fallback = fallback;
+        this.connectTimeoutSeconds = connectTimeoutSeconds;
+        this.requestTimeoutSeconds = requestTimeoutSeconds;
+        this.httpClient = HTTP_CLIENTS.computeIfAbsent(connectTimeoutSeconds, timeout -> HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(timeout))
+                .build());
+    }
+
+    @Override
+    public AuthToken getAuthToken(String domain,
+                                  String domainOwner,
+                                  String awsProfile,
+                                  String awsRegion,
+                                  AWSInvoker.BackgroundController controller) throws OperationException {
+        HttpRequest request;
+        try {
+            request = createRequest(domain, domainOwner, AWSInvoker.getProfile(awsProfile), awsRegion);
+        } catch (UnsupportedProfileException ex) {
+            LOGGER.debug("Using aws cli: " + ex.getMessage());
+            return fallback.getAuthToken(domain, domainOwner, awsProfile, awsRegion, controller);
+        }
+        CompletableFuture<HttpResponse<String>> future =
+                httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        Runnable cancelListener = () -> future.cancel(true);
+        controller.addCancelListener(cancelListener);
+        try {
+            HttpResponse<String> response = future.get();
+            if (response.statusCode() == 200) {
+                return AuthToken.parse(response.body());
+            }
+            String error = getErrorMessage(response);
+            if (response.statusCode() == 429 || response.statusCode() >= 500) {
+                throw new TransientOperationException(error);
+            }
+            throw TransientOperationException.create(error);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+            if (cause instanceof HttpConnectTimeoutException) {
+                throw new TimeoutOperationException(connectTimeoutSeconds);
+            }
+            if (cause instanceof HttpTimeoutException) {
+                throw new TimeoutOperationException(requestTimeoutSeconds);
+            }
+            String error = "Error accessing CodeArtifact: " + cause.getMessage();
+            // network errors: connection refused or reset
+            throw cause instanceof IOException ? new TransientOperationException(error) : new OperationException(error);
+        } catch (CancellationException | InterruptedException ex) {
+            future.cancel(true);
+            return null;
+        } finally {
+            controller.removeCancelListener(cancelListener);
+        }
+    }
+
+    private HttpRequest createRequest(String domain,
+                                      String domainOwner,
+                                      String profile,
+                                      String awsRegion) throws UnsupportedProfileException {
+        Map<String, String> properties = null;
+        Credentials credentials = null;
+        if (profile == null) {
+            // same precedence as the aws cli: environment credentials, then AWS_PROFILE or default profile
+            credentials = getEnvironmentCredentials();
+            String envProfile = System.getenv("AWS_PROFILE");
+            profile = envProfile == null || envProfile.isBlank() ? AWSProfileHandler.DEFAULT_PROFILE : envProfile;
+        }
+        if (credentials == null || !hasRegion(awsRegion)) {
+            properties = AWSProfileHandler.getProfileProperties(profile);
+        }
+        if (credentials == null) {
+            credentials = getProfileCredentials(profile, properties);
+        }
+        String region = getRegion(awsRegion, properties);
+        URI uri = URI.create((endpointUrl == null ? "https://" + SERVICE + "." + region + ".amazonaws.com" : endpointUrl)
+                .replaceAll("/+$", "") + PATH + "?" + getCanonicalQuery(domain, domainOwner));
+
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        String amzDate = AMZ_DATE.format(now);
+        String date = amzDate.substring(0, 8);
+        // the http client omits the default port in the Host header: so must the signature
+        boolean defaultPort = uri.getPort() == -1
+                || (uri.getPort() == 443 && "https".equalsIgnoreCase(uri.getScheme()))
+                || (uri.getPort() == 80 && "http".equalsIgnoreCase(uri.getScheme()));
+        String host = defaultPort ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+        String signedHeaders = credentials.sessionToken == null ? "host;x-amz-date" : "host;x-amz-date;x-amz-security-token";
+        StringBuilder canonicalHeaders = new StringBuilder()
+                .append("host:").append(host).append('\n')
+                .append("x-amz-date:").append(amzDate).append('\n');
+        if (credentials.sessionToken != null) {
+            canonicalHeaders.append("x-amz-security-token:").append(credentials.sessionToken).append('\n');
+        }
+        String canonicalRequest = String.join("\n", "POST", uri.getRawPath(), uri.getRawQuery(),
+                canonicalHeaders.toString(), signedHeaders, hex(sha256("")));
+        String scope = date + "/" + region + "/" + SERVICE + "/aws4_request";
+        String stringToSign = String.join("\n", "AWS4-HMAC-SHA256", amzDate, scope, hex(sha256(canonicalRequest)));
+        byte[] key = hmac(("AWS4" + credentials.secretAccessKey).getBytes(StandardCharsets.UTF_8), date);
+        key = hmac(key, region);
+        key = hmac(key, SERVICE);
+        key = hmac(key, "aws4_request");
+        String signature = hex(hmac(key, stringToSign));
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofSeconds(requestTimeoutSeconds))
+                .header("X-Amz-Date", amzDate)
+                .header("Authorization", String.format("AWS4-HMAC-SHA256 Credential=%s/%s, SignedHeaders=%s, Signature=%s",
+                        credentials.accessKeyId, scope, signedHeaders, signature))
+                .POST(HttpRequest.BodyPublishers.noBody());
+        if (credentials.sessionToken != null) {
+            builder.header("X-Amz-Security-Token", credentials.sessionToken);
+        }
+        return builder.build();
+    }
+
+    private static Credentials getEnvironmentCredentials() {
+        String accessKeyId = System.getenv("AWS_ACCESS_KEY_ID");
+        String secretAccessKey = System.getenv("AWS_SECRET_ACCESS_KEY");
+        if (accessKeyId == null || accessKeyId.isBlank() || secretAccessKey == null || secretAccessKey.isBlank()) {
+            return null;
+        }
+        return new Credentials(accessKeyId, secretAccessKey, System.getenv("AWS_SESSION_TOKEN"));
+    }
+
+    private static Credentials getProfileCredentials(String profile,
+                                                     Map<String, String> properties) throws UnsupportedProfileException {
+        if (AWSProfileHandler.hasResolvedCredentials(properties)) {
+            throw new UnsupportedProfileException(String.format("profile %s requires resolving its credentials", profile));
+        }
+        String accessKeyId = properties.get("aws_access_key_id");
+        String secretAccessKey = properties.get("aws_secret_access_key");
+        if (accessKeyId == null || accessKeyId.isBlank() || secretAccessKey == null || secretAccessKey.isBlank()) {
+            throw new UnsupportedProfileException(String.format("no static credentials for profile %s", profile));
+        }
+        return new Credentials(accessKeyId, secretAccessKey, properties.get("aws_session_token"));
+    }
+
+    private String getRegion(String awsRegion, Map<String, String> properties) throws UnsupportedProfileException {
+        if (hasRegion(awsRegion)) {
+            return awsRegion;
+        }
+        for (String env : new String[]{"AWS_REGION", "AWS_DEFAULT_REGION"}) {
+            String region = System.getenv(env);
+            if (region != null && !region.isBlank()) {
+                return region.trim();
+            }
+        }
+        String region = properties == null ? null : properties.get("region");
+        if (region != null && !region.isBlank()) {
+            return region;
+        }
+        if (endpointUrl != null) {
+            return DEFAULT_SIGNING_REGION;
+        }
+        // let the aws cli report the missing region
+        throw new UnsupportedProfileException("no region defined");
+    }
+
+    private static boolean hasRegion(String awsRegion) {
+        return awsRegion != null && !awsRegion.isBlank() && !awsRegion.equals(Configuration.DEFAULT_PROFILE_REGION);
+    }
+
+    /**
+     * Query parameters, sorted by name, as required for the canonical request
+     */
+    private static String getCanonicalQuery(String domain, String domainOwner) {
+        return "domain=" + encode(domain) + "&domain-owner=" + encode(domainOwner);
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8)
+                .replace("+", "%20").replace("*", "%2A").replace("%7E", "~");
+    }
+
+    private static String getErrorMessage(HttpResponse<String> response) {
+        String type = response.headers().firstValue("x-amzn-ErrorType").orElse(null);
+        Matcher m = ERROR_MESSAGE_PATTERN.matcher(response.body());
+        String message = m.find() ? m.group(1) : "Auth token request failed with status " + response.statusCode();
+        if (type != null) {
+            // error type can be given as Type:additionalInformation
+            message = type.split(":")[0] + ": " + message;
+        }
+        return message;
+    }
+
+    private static byte[] sha256(String text) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String text) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(text.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    private final static Logger LOGGER = Logger.getInstance(AWSNativeInvoker.class);
+}
@@ -1,19 +1,19 @@
 package net.coderazzi.aws_codeartifact_maven.utils;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 // https://docs.aws.amazon.com/sdkref/latest/guide/file-location.html
 public class AWSProfileHandler {
@@ -22,11 +22,54 @@ public class AWSProfileHandler {
     // https://docs.aws.amazon.com/IAM/latest/APIReference/API_CreateInstanceProfile.html
     // Profile name pattern: [\w+=,.@:-]+
     private static final Pattern configPattern =
-            Pattern.compile("^\\s*\\[\\s*profile\\s+([\\w+=,.@:-]+)\\s*]\\s*$",
-            Pattern.CASE_INSENSITIVE);
-    private static final Pattern credentialsPattern =
-            Pattern.compile("^\\s*\\[\\s*([\\w+=,.@:-]+)\\s*]\\s*$",
-            Pattern.CASE_INSENSITIVE);
+            Pattern.compile("^profile ([\\w+=,.@:-]+)$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern credentialsPattern = Pattern.compile("^([\\w+=,.@:-]+)$");
+    // properties in nested sections (lines starting with spaces) are not considered.
+    // mfa_serial is not included: it only requires resolving the credentials together with role_arn
+    private static final List<String> RESOLVED_CREDENTIALS_PROPERTIES = List.of("role_arn", "source_profile",
+            "credential_source", "credential_process", "sso_session", "sso_start_url", "web_identity_token_file");
+    private static final Pattern propertyPattern = Pattern.compile("^([\\w-]+)\\s*=\\s*(.*?)\\s*$");
+
+    /**
+     * Sections and properties of an AWS file, valid while its size and modification time do not change
+     */
+    private static class ParsedFile {
+        final long size;
+        final FileTime lastModified;
+        final Map<String, Map<String, String>> sections;
+        final Map<Pattern, Set<String>> profiles = new ConcurrentHashMap<>();
+
+        ParsedFile(BasicFileAttributes attributes, Map<String, Map<String, String>> sections) {
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime();
+            this.sections = sections;
+        }
+
+        boolean isValid(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified.equals(attributes.lastModifiedTime());
+        }
+
+        /**
+         * Returns the profiles defined in the sections matching the given pattern
+         */
+        Set<String> getProfiles(Pattern pattern) {
+            return profiles.computeIfAbsent(pattern, x -> {
+                Set<String> ret = new HashSet<>();
+                for (String section : sections.keySet()) {
+                    Matcher m = pattern.matcher(section);
+                    if (m.matches()) {
+                        ret.add(m.group(1));
+                    }
+                }
+                return ret;
+            });
+        }
+    }
+
+    /**
+     * Application wide cache: the AWS files are only parsed again when they change
+     */
+    private static final Map<Path, ParsedFile> PARSED_FILES = new ConcurrentHashMap<>();
 
     public static Set<String> getDefaultProfiles() {
         Set<String> ret = new TreeSet<>();
@@ -68,20 +111,104 @@ public class AWSProfileHandler {
                 files.keySet().stream().map(k -> k.normalize().toString()).collect(Collectors.joining(", ")));
     }
 
-    private static boolean getProfiles(Set<String> profiles, Path path, Pattern pattern) {
-        try (Stream<String> lines = Files.lines(path, Charset.defaultCharset())) {
-            lines.forEach(line -> {
-                Matcher m = pattern.matcher(line);
-                if (m.matches()) {
-                    profiles.add(m.group(1));
+    /**
+     * Returns the properties defined for the given profile in the AWS config and credentials files,
+     * the latter having precedence. The map is empty if the profile is not defined
+     */
+    public static Map<String, String> getProfileProperties(String profile) {
+        Map<String, String> ret = new HashMap<>();
+        String home = System.getProperty("user.home");
+        Path awsPath = home == null ? null : Paths.get(home).resolve(".aws");
+        Path config = getAwsFile("AWS_CONFIG_FILE", awsPath, "config");
+        Path credentials = getAwsFile("AWS_SHARED_CREDENTIALS_FILE", awsPath, "credentials");
+        if (config != null) {
+            if (DEFAULT_PROFILE.equals(profile)) {
+                getProfileProperties(ret, config, DEFAULT_PROFILE);
+            }
+            getProfileProperties(ret, config, "profile " + profile);
+        }
+        if (credentials != null) {
+            getProfileProperties(ret, credentials, profile);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns true if the profile credentials must be resolved by the aws cli (roles, SSO, credential processes...),
+     * instead of being directly defined in the profile
+     */
+    public static boolean hasResolvedCredentials(Map<String, String> properties) {
+        return RESOLVED_CREDENTIALS_PROPERTIES.stream().anyMatch(properties::containsKey);
+    }
+
+    /**
+     * Returns the file to use, as the environment variable, if defined, overrides the default location
+     */
+    private static Path getAwsFile(String envVariable, Path awsPath, String filename) {
+        String env = System.getenv(envVariable);
+        if (env != null) {
+            return Paths.get(env);
+        }
+        return awsPath == null ? null : awsPath.resolve(filename);
+    }
+
+    private static void getProfileProperties(Map<String, String> properties, Path path, String section) {
+        if (Files.isReadable(path)) {
+            try {
+                Map<String, String> sectionProperties = getParsedFile(path).sections.get(section);
+                if (sectionProperties != null) {
+                    properties.putAll(sectionProperties);
                 }
-            });
+            } catch (IOException ex) {
+                // nothing to do, properties just not read
+            }
+        }
+    }
+
+    private static boolean getProfiles(Set<String> profiles, Path path, Pattern pattern) {
+        try {
+            profiles.addAll(getParsedFile(path).getProfiles(pattern));
         } catch (IOException ex) {
             return false;
         }
         return true;
     }
 
+    /**
+     * Returns the content of the file, parsing it only if it has changed since the last access
+     */
+    private static ParsedFile getParsedFile(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        ParsedFile ret = PARSED_FILES.get(key);
+        if (ret == null || !ret.isValid(attributes)) {
+            ret = new ParsedFile(attributes, parseSections(key));
+            PARSED_FILES.put(key, ret);
+        }
+        return ret;
+    }
+
+    private static Map<String, Map<String, String>> parseSections(Path path) throws IOException {
+        Map<String, Map<String, String>> ret = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, Charset.defaultCharset())) {
+            Map<String, String> section = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+                if (trimmed.startsWith("[") && trimmed.endsWith("]")) {
+                    String name = trimmed.substring(1, trimmed.length() - 1).trim().replaceAll("\\s+", " ");
+                    section = ret.computeIfAbsent(name, x -> new HashMap<>());
+                } else if (section != null && !trimmed.isEmpty()) {
+                    Matcher m = propertyPattern.matcher(line);
+                    if (m.matches()) {
+                        section.put(m.group(1).toLowerCase(), m.group(2));
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
     public static class GetProfilesException extends Exception {
         GetProfilesException(String ex) {
             super(ex);
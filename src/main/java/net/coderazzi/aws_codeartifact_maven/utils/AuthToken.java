@@ -0,0 +1,55 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * CodeArtifact authorization token, as returned by get-authorization-token
+ */
+public class AuthToken {
+
+    private static final Pattern TOKEN_PATTERN =
+            Pattern.compile("\"authorizationToken\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern EXPIRATION_PATTERN =
+            Pattern.compile("\"expiration\"\\s*:\\s*(?:\"([^\"]+)\"|([0-9.]+))");
+
+    public final String token;
+    /**
+     * Expiration time, in milliseconds since the epoch; 0 if unknown
+     */
+    public final long expiration;
+
+    public AuthToken(String token, long expiration) {
+        this.token = token;
+        this.expiration = expiration;
+    }
+
+    /**
+     * Parses the json output of get-authorization-token, like:
+     * {"authorizationToken": "...", "expiration": "2024-11-17T23:09:47+01:00"}
+     * The expiration can be also provided as seconds since the epoch.
+     */
+    public static AuthToken parse(String json) throws OperationException {
+        Matcher m = TOKEN_PATTERN.matcher(json);
+        if (!m.find()) {
+            throw new OperationException("Unexpected output from AWS command, no authorization token found");
+        }
+        String token = m.group(1);
+        long expiration = 0;
+        m = EXPIRATION_PATTERN.matcher(json);
+        if (m.find()) {
+            try {
+                if (m.group(1) != null) {
+                    expiration = OffsetDateTime.parse(m.group(1)).toInstant().toEpochMilli();
+                } else {
+                    expiration = (long) (Double.parseDouble(m.group(2)) * 1000);
+                }
+            } catch (DateTimeParseException | NumberFormatException ex) {
+                // expiration is then just unknown
+            }
+        }
+        return new AuthToken(token, expiration);
+    }
+}
@@ -0,0 +1,16 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+/**
+ * Obtains CodeArtifact auth tokens, either via the aws cli or natively
+ */
+public interface AuthTokenInvoker {
+
+    /**
+     * Returns the auth token, or null if the request is cancelled
+     */
+    AuthToken getAuthToken(String domain,
+                           String domainOwner,
+                           String awsProfile,
+                           String awsRegion,
+                           AWSInvoker.BackgroundController controller) throws OperationException;
+}
@@ -1,11 +1,13 @@
 package net.coderazzi.aws_codeartifact_maven.utils;
 
+import com.intellij.openapi.diagnostic.Logger;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Transformer;
@@ -13,17 +15,18 @@ import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.util.Set;
-import java.util.TreeSet;
-
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MavenSettingsFileHandler {
 
@@ -34,9 +37,69 @@ public class MavenSettingsFileHandler {
     }
 
     public static final String PASSWORD = "password";
+    private static final String SERVERS_XPATH = "/settings/servers/server";
+
+    /**
+     * Server definition in the settings file, as found in the index
+     */
+    private static class Server {
+        final String username, password;
+        final int passwords;
+
+        Server(String username, String password, int passwords) {
+            this.username = username;
+            this.password = password;
+            this.passwords = passwords;
+        }
+    }
+
+    /**
+     * Parsed servers of a settings file, valid while the file size and modification time do not change
+     */
+    private static class ServerIndex {
+        final long size;
+        final FileTime lastModified;
+        final Map<String, List<Server>> servers;
+
+        ServerIndex(BasicFileAttributes attributes, Map<String, List<Server>> servers) {
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime();
+            this.servers = servers;
+        }
+
+        boolean isValid(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified.equals(attributes.lastModifiedTime());
+        }
+    }
+
+    /**
+     * Application wide cache, shared by the dialogs and the background refresh
+     */
+    private static final Map<Path, ServerIndex> INDEX_CACHE = new ConcurrentHashMap<>();
+
+    // the factories are expensive to create, and the parsers are not thread safe
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = ThreadLocal.withInitial(() -> {
+        try {
+            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+            //            dbFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            dbFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return dbFactory.newDocumentBuilder();
+        } catch (ParserConfigurationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    });
+    private static final ThreadLocal<XPathExpression> SERVERS_EXPRESSION = ThreadLocal.withInitial(() -> {
+        try {
+            return XPathFactory.newInstance().newXPath().compile(SERVERS_XPATH);
+        } catch (XPathExpressionException ex) {
+            throw new IllegalStateException(ex);
+        }
+    });
 
     private final String settingsPath;
-    private Element xmlPasswordElement;
+    private final Map<String, String> serverErrors = new HashMap<>();
+    private final Map<String, String> updatedPasswords = new LinkedHashMap<>();
+    private ServerIndex index;
 
     public MavenSettingsFileHandler(String settingsPath) {
         this.settingsPath = settingsPath;
@@ -45,19 +108,14 @@ public class MavenSettingsFileHandler {
     public Set<String> getServerIds(String username) throws GetServerIdsException {
         Set<String> ret = new TreeSet<>();
         try {
-            Document input = getDocument();
-            XPath xpath = XPathFactory.newInstance().newXPath();
-            NodeList nodes = (NodeList) xpath.evaluate("/settings/servers/server", input, XPathConstants.NODESET);
-            for (int i = nodes.getLength() - 1; i >= 0; i--) {
-                Node node = nodes.item(i);
-                Element element = (Element) node;
-                NodeList idsNodes = element.getElementsByTagName("id");
-                NodeList usernameNodes = element.getElementsByTagName("username");
-                if (idsNodes.getLength() == 1 && usernameNodes.getLength() == 1 && username.equals(usernameNodes.item(0).getTextContent())) {
-                    ret.add(idsNodes.item(0).getTextContent());
+            getIndex().servers.forEach((id, servers) -> {
+                for (Server server : servers) {
+                    if (username.equals(server.username)) {
+                        ret.add(id);
+                    }
                 }
-            }
-        } catch (ParserConfigurationException | SAXException | XPathExpressionException ex) {
+            });
+        } catch (SAXException | XPathExpressionException ex) {
             throw new GetServerIdsException(String.format("XML parsing error in settings file %s: %s", this.settingsPath, ex.getMessage()));
         } catch (IOException ex) {
             throw new GetServerIdsException(String.format("Error accessing settings file: %s", ex.getMessage()));
@@ -65,78 +123,195 @@ public class MavenSettingsFileHandler {
         return ret;
     }
 
-    private Document getDocument() throws ParserConfigurationException, SAXException, IOException {
-        File f = new File(this.settingsPath);
-        if (f.canRead()) {
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            //            dbFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-            dbFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-            return dbFactory.newDocumentBuilder().parse(f);
+    /**
+     * Returns the servers in the settings file, parsing it only if it has changed since last access
+     */
+    private ServerIndex getIndex() throws SAXException, IOException, XPathExpressionException {
+        Path path = Path.of(this.settingsPath).toAbsolutePath();
+        BasicFileAttributes attributes = getAttributes(path);
+        ServerIndex ret = INDEX_CACHE.get(path);
+        if (ret == null || !ret.isValid(attributes)) {
+            ret = new ServerIndex(attributes, parseServers(getDocument()));
+            INDEX_CACHE.put(path, ret);
         }
-        if (f.exists()) {
+        return ret;
+    }
+
+    private BasicFileAttributes getAttributes(Path path) throws IOException {
+        File f = path.toFile();
+        if (!f.exists()) {
             throw new IOException(String.format("File '%s' does not exist", this.settingsPath));
         }
-        throw new IOException(String.format("Cannot read file '%s'", this.settingsPath));
+        if (!f.canRead()) {
+            throw new IOException(String.format("Cannot read file '%s'", this.settingsPath));
+        }
+        return Files.readAttributes(path, BasicFileAttributes.class);
     }
 
-    public void locateServer(String serverId) throws OperationException{
-        xmlPasswordElement = null;
-        try {
-            Document input = getDocument();
-            XPath xpath = XPathFactory.newInstance().newXPath();
-            String expr = String.format("/settings/servers/server/id[text()=\"%s\"]", serverId);
-            NodeList nodes = (NodeList) xpath.evaluate(expr, input, XPathConstants.NODESET);
-            if (nodes.getLength() == 1) {
-                Element parent = (Element) nodes.item(0).getParentNode();
-                nodes = parent.getElementsByTagName(PASSWORD);
-                if (nodes.getLength() == 1) {
-                    xmlPasswordElement = (Element) nodes.item(0);
-                } else if (nodes.getLength() == 0) {
-                    xmlPasswordElement = input.createElement(PASSWORD);
-                    parent.appendChild(xmlPasswordElement);
-                } else {
-                    throw new OperationException("Unexpected: many password tags for server '%s' in settings file %s",
-                            serverId, this.settingsPath);
-                }
-            } else {
-                throw new OperationException("Cannot find a server '%s' in settings file '%s'",
-                        serverId, this.settingsPath);
+    private Document getDocument() throws SAXException, IOException {
+        DocumentBuilder builder = DOCUMENT_BUILDER.get();
+        builder.reset();
+        return builder.parse(new File(this.settingsPath));
+    }
+
+    private static Map<String, List<Server>> parseServers(Document document) throws XPathExpressionException {
+        Map<String, List<Server>> ret = new HashMap<>();
+        for (Element server : getServerElements(document)) {
+            List<Element> usernames = getChildElements(server, "username");
+            List<Element> passwords = getChildElements(server, PASSWORD);
+            Server entry = new Server(usernames.size() == 1 ? usernames.get(0).getTextContent() : null,
+                    passwords.size() == 1 ? passwords.get(0).getTextContent() : "",
+                    passwords.size());
+            for (Element id : getChildElements(server, "id")) {
+                ret.computeIfAbsent(id.getTextContent(), x -> new ArrayList<>()).add(entry);
             }
-        } catch (ParserConfigurationException | SAXException ex) {
+        }
+        return ret;
+    }
+
+    private static List<Element> getServerElements(Document document) throws XPathExpressionException {
+        NodeList nodes = (NodeList) SERVERS_EXPRESSION.get().evaluate(document, XPathConstants.NODESET);
+        List<Element> ret = new ArrayList<>(nodes.getLength());
+        for (int i = 0; i < nodes.getLength(); i++) {
+            ret.add((Element) nodes.item(i));
+        }
+        return ret;
+    }
+
+    /**
+     * Locates all the given servers in the settings file, parsing it only if it has changed.
+     * Errors affecting only some servers are reported when those servers are accessed.
+     */
+    public synchronized void locateServers(Collection<String> serverIds) throws OperationException {
+        serverErrors.clear();
+        updatedPasswords.clear();
+        try {
+            index = getIndex();
+        } catch (SAXException ex) {
             throw new OperationException("XML parsing error in settings file %s: %s", this.settingsPath, ex.getMessage());
         } catch (XPathExpressionException ex) {
-            throw new OperationException("XPath error, invalid maven server id(%s)", serverId);
+            throw new OperationException("XPath error in settings file %s: %s", this.settingsPath, ex.getMessage());
         } catch (IOException ex) {
             throw new OperationException("Error accessing settings file: %s", ex.getMessage());
         }
+        for (String serverId : serverIds) {
+            List<Server> matching = index.servers.get(serverId);
+            if (matching == null || matching.size() != 1) {
+                serverErrors.put(serverId, String.format("Cannot find a server '%s' in settings file '%s'",
+                        serverId, this.settingsPath));
+            } else if (matching.get(0).passwords > 1) {
+                serverErrors.put(serverId, String.format(
+                        "Unexpected: many password tags for server '%s' in settings file %s",
+                        serverId, this.settingsPath));
+            }
+        }
     }
 
-    public void setPassword(String authToken) throws OperationException{
-        if (xmlPasswordElement == null) {
-            throw new OperationException("Cannot replace auth token");
-        } else {
-            xmlPasswordElement.setTextContent(authToken);
+    /**
+     * Returns the current password of a located server, empty if the server has no password yet
+     */
+    public synchronized String getPassword(String serverId) throws OperationException {
+        String updated = updatedPasswords.get(serverId);
+        return updated != null ? updated : getServer(serverId).password;
+    }
 
-            TransformerFactory tFactory = TransformerFactory.newInstance();
+    /**
+     * Updates the password of a located server. The settings file is only written on flush
+     */
+    public synchronized void updatePassword(String serverId, String authToken) throws OperationException {
+        getServer(serverId);
+        updatedPasswords.put(serverId, authToken);
+    }
+
+    /**
+     * Writes the settings file, if any password has been updated.
+     * Only the password tags are modified, the rest of the file is kept byte by byte;
+     * the file is not written at all if the passwords are not really modified.
+     * The file is read again under a lock shared with other processes, so the passwords
+     * updated meanwhile by other processes are kept.
+     */
+    public synchronized void flush() throws OperationException {
+        if (updatedPasswords.isEmpty()) {
+            return;
+        }
+        Path settings = Path.of(this.settingsPath);
+        try (SettingsFileLock ignored = SettingsFileLock.acquire(settings)) {
             try {
-//                tFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-                Transformer transformer = tFactory.newTransformer();
-
-                File settings = new File(this.settingsPath);
-                File temp = File.createTempFile("settings-tmp-", ".xml", settings.getParentFile());
-                temp.deleteOnExit();
-                try {
-                    StreamResult output = new StreamResult(temp);
-                    transformer.transform(new DOMSource(xmlPasswordElement.getOwnerDocument()), output);
-                    Files.move(temp.toPath(), settings.toPath(), REPLACE_EXISTING);
-                } finally {
-                    temp.delete();
+                SettingsFileRewriter.rewrite(settings, updatedPasswords);
+                updatedPasswords.clear();
+            } catch (SettingsFileRewriter.FormatException ex) {
+                LOGGER.info("Settings file cannot be updated in place, serializing it: " + ex.getMessage());
+                transform();
+            }
+        } catch (IOException ex) {
+            throw new OperationException("Could not update settings file: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Writes the whole document, used only if the file cannot be patched in place.
+     * It must be called holding the settings file lock
+     */
+    private void transform() throws OperationException {
+        TransformerFactory tFactory = TransformerFactory.newInstance();
+        try {
+//            tFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            Transformer transformer = tFactory.newTransformer();
+            Document document = getDocument();
+            for (Element server : getServerElements(document)) {
+                for (Element id : getChildElements(server, "id")) {
+                    String token = updatedPasswords.get(id.getTextContent());
+                    if (token != null) {
+                        List<Element> passwords = getChildElements(server, PASSWORD);
+                        Element password = passwords.isEmpty() ? null : passwords.get(0);
+                        if (password == null) {
+                            password = document.createElement(PASSWORD);
+                            server.appendChild(password);
+                        }
+                        password.setTextContent(token);
+                    }
                 }
-            } catch (TransformerException tex) {
-                throw new OperationException("Unexpected XML error: " + tex.getMessage());
-            } catch (IOException ex) {
-                throw new OperationException("Could not update settings file: " + ex.getMessage());
             }
+
+            File settings = new File(this.settingsPath);
+            File temp = File.createTempFile("settings-tmp-", ".xml", settings.getAbsoluteFile().getParentFile());
+            temp.deleteOnExit();
+            try {
+                StreamResult output = new StreamResult(temp);
+                transformer.transform(new DOMSource(document), output);
+                SettingsFileRewriter.replace(temp.toPath(), settings.toPath());
+                updatedPasswords.clear();
+            } finally {
+                temp.delete();
+            }
+        } catch (TransformerException | SAXException | XPathExpressionException tex) {
+            throw new OperationException("Unexpected XML error: " + tex.getMessage());
+        } catch (IOException ex) {
+            throw new OperationException("Could not update settings file: " + ex.getMessage());
         }
     }
+
+    private Server getServer(String serverId) throws OperationException {
+        String error = serverErrors.get(serverId);
+        if (error != null) {
+            throw new OperationException(error);
+        }
+        List<Server> ret = index == null ? null : index.servers.get(serverId);
+        if (ret == null) {
+            throw new OperationException("Cannot replace auth token");
+        }
+        return ret.get(0);
+    }
+
+    private static List<Element> getChildElements(Element parent, String name) {
+        List<Element> ret = new ArrayList<>();
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element element && name.equals(element.getTagName())) {
+                ret.add(element);
+            }
+        }
+        return ret;
+    }
+
+    private final static Logger LOGGER = Logger.getInstance(MavenSettingsFileHandler.class);
 }
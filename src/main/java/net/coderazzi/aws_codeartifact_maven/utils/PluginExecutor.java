@@ -0,0 +1,220 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor for all the background work of the plugin: it uses virtual threads if the runtime
+ * supports them, or a pool of cached threads otherwise.
+ * Threads are named after the task they run, and all tasks are interrupted when the plugin is unloaded.
+ * Tasks are only rejected once the executor is shut down.
+ */
+public final class PluginExecutor implements Disposable {
+
+    private static final String THREAD_PREFIX = "AWS CodeArtifact";
+    private static final long POOL_KEEP_ALIVE_SECONDS = 60;
+    private static final long SHUTDOWN_TIMEOUT_MS = 2000;
+
+    /**
+     * Instance used when running outside the IDE
+     */
+    private static class Standalone {
+        static final PluginExecutor INSTANCE = new PluginExecutor();
+    }
+
+    private final ExecutorService executor;
+    private final AtomicInteger activeTasks = new AtomicInteger();
+
+    public PluginExecutor() {
+        ExecutorService virtualThreads = createVirtualThreadExecutor();
+        executor = virtualThreads == null ? createPool() : virtualThreads;
+        LOGGER.debug("Background tasks use " + (virtualThreads == null ? "a thread pool" : "virtual threads"));
+    }
+
+    private static volatile boolean standalone;
+
+    public static PluginExecutor getInstance() {
+        if (standalone) {
+            return Standalone.INSTANCE;
+        }
+        Application application = ApplicationManager.getApplication();
+        return application == null ? Standalone.INSTANCE : application.getService(PluginExecutor.class);
+    }
+
+    /**
+     * Used when running outside the IDE, where the platform application classes are not available
+     */
+    public static void setStandalone() {
+        standalone = true;
+    }
+
+    /**
+     * Runs the task in the background. Cancelling the returned future interrupts the task
+     */
+    public Future<?> submit(String name, Runnable task) {
+        return executor.submit(named(name, task));
+    }
+
+    /**
+     * Returns an executor that runs on this executor at most the given number of tasks at once
+     */
+    public Executor createBoundedExecutor(String name, int parallelism) {
+        return new BoundedExecutor(name, parallelism);
+    }
+
+    /**
+     * Number of tasks currently running
+     */
+    public int getActiveTasks() {
+        return activeTasks.get();
+    }
+
+    @Override
+    public void dispose() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn(String.format("%d background tasks still running after shutdown", activeTasks.get()));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Runnable named(String name, Runnable task) {
+        return () -> {
+            Thread thread = Thread.currentThread();
+            String threadName = thread.getName();
+            thread.setName(THREAD_PREFIX + ": " + name);
+            activeTasks.incrementAndGet();
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                LOGGER.error("Background task '" + name + "' failed", ex);
+                throw ex;
+            } finally {
+                activeTasks.decrementAndGet();
+                thread.setName(threadName);
+            }
+        };
+    }
+
+    /**
+     * Virtual threads are only available from Java 21, the plugin is compiled for older versions
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, THREAD_PREFIX + " virtual-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Tasks depend on each other (a generation waits for its token request, which waits for its process
+     * readers), so they cannot be queued, and the pool cannot limit its threads without rejecting them.
+     * The number of threads is bounded instead by the callers, through bounded executors
+     */
+    private static ExecutorService createPool() {
+        AtomicInteger threads = new AtomicInteger();
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, POOL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), task -> {
+            Thread ret = new Thread(task, THREAD_PREFIX + " pool-" + threads.incrementAndGet());
+            ret.setDaemon(true);
+            return ret;
+        });
+    }
+
+    private class BoundedExecutor implements Executor {
+        private final String name;
+        private final int parallelism;
+        private final Queue<Runnable> pending = new ArrayDeque<>();
+        private int running;
+
+        BoundedExecutor(String name, int parallelism) {
+            this.name = name;
+            this.parallelism = parallelism;
+        }
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Plugin executor shut down");
+            }
+            pending.add(task);
+            try {
+                startPending();
+            } catch (RejectedExecutionException ex) {
+                // the caller handles the rejection, the task is not run later
+                pending.remove(task);
+                throw ex;
+            }
+        }
+
+        /**
+         * Starts the pending tasks, up to the parallelism. A task stays pending if it cannot be started
+         */
+        private synchronized void startPending() {
+            while (running < parallelism && !pending.isEmpty()) {
+                Runnable task = pending.peek();
+                running++;
+                try {
+                    submit(name, () -> {
+                        try {
+                            task.run();
+                        } finally {
+                            taskCompleted();
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    running--;
+                    throw ex;
+                }
+                pending.poll();
+            }
+        }
+
+        private void taskCompleted() {
+            List<Runnable> dropped;
+            synchronized (this) {
+                running--;
+                try {
+                    startPending();
+                    return;
+                } catch (RejectedExecutionException ex) {
+                    if (!executor.isShutdown()) {
+                        throw ex;
+                    }
+                    // plugin being unloaded: the pending tasks are not dropped, their callers wait for them
+                    dropped = new ArrayList<>(pending);
+                    pending.clear();
+                }
+            }
+            // run in this thread, as in CallerRunsPolicy; they fail fast, any task they submit is rejected
+            for (Runnable task : dropped) {
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    LOGGER.debug("Background task '" + name + "' failed on shutdown: " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private final static Logger LOGGER = Logger.getInstance(PluginExecutor.class);
+}
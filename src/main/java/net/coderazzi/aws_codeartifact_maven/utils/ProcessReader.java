@@ -0,0 +1,176 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Collects the output of a process, reading it in chunks on a background task.
+ * Only the last bytes (up to the given capacity) are kept, so a chatty process cannot exhaust the heap,
+ * and the MFA prompt is detected incrementally, scanning only the newly arrived bytes, and pushed to
+ * the given listener.
+ */
+class ProcessReader implements Runnable {
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final int MAX_LINE_LENGTH = 1024;
+    private static final String MFA_PROMPT = "Enter MFA code for ";
+    private static final Pattern mfaPattern = Pattern.compile(MFA_PROMPT + "\\S+\\s");
+    private static final Charset ENCODING = StandardCharsets.UTF_8; // python 3 (aws cli) encoding
+
+    private final InputStream inputStream;
+    private final Future<?> task;
+    private final RingBuffer output;
+    private final Consumer<String> mfaRequestListener;
+    // last line read, each byte stored as a char: prompts are ascii
+    private final StringBuilder currentLine = new StringBuilder();
+
+    /**
+     * @param capacity           maximum number of bytes kept from the output
+     * @param mfaRequestListener notified from the reading thread with each MFA prompt, can be null
+     */
+    public ProcessReader(InputStream inputStream, int capacity, Consumer<String> mfaRequestListener) {
+        this.inputStream = inputStream;
+        this.output = new RingBuffer(capacity);
+        this.mfaRequestListener = mfaRequestListener;
+        this.task = PluginExecutor.getInstance().submit("process output reader", this);
+    }
+
+    /**
+     * Waits until the process output is completely read, returning it (null if empty).
+     * If the output exceeded the capacity, only its last part is returned.
+     */
+    public String getOutput() {
+        try {
+            this.task.get();
+        } catch (InterruptedException | ExecutionException | CancellationException ex) {
+            // thread interrupted, app being stopped, nothing else to do here
+        }
+        synchronized (this) {
+            if (output.isEmpty()) {
+                return null;
+            }
+            String read = new String(output.toByteArray(), ENCODING);
+            return output.isTruncated() ? "[...]" + read : read;
+        }
+    }
+
+    @Override
+    public void run() {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        try {
+            int read;
+            while ((read = inputStream.read(chunk)) != -1) {
+                String mfaRequest;
+                synchronized (this) {
+                    output.write(chunk, 0, read);
+                    mfaRequest = mfaRequestListener == null ? null : scanMfaRequest(chunk, read);
+                }
+                if (mfaRequest != null) {
+                    mfaRequestListener.accept(mfaRequest);
+                }
+            }
+        } catch (IOException ex) {
+            byte[] b = "Error reading AWS output".getBytes(ENCODING);
+            synchronized (this) {
+                output.clear();
+                output.write(b, 0, b.length);
+            }
+        }
+    }
+
+    /**
+     * The prompt is written without line feed, and then the process waits: it must be the end
+     * of the current line once the chunk is processed
+     */
+    private String scanMfaRequest(byte[] chunk, int length) {
+        for (int i = 0; i < length; i++) {
+            byte b = chunk[i];
+            if (b == '\n' || b == '\r') {
+                currentLine.setLength(0);
+            } else if (currentLine.length() < MAX_LINE_LENGTH) {
+                currentLine.append((char) (b & 0xff));
+            }
+        }
+        int start = currentLine.indexOf(MFA_PROMPT);
+        if (start != -1) {
+            Matcher m = mfaPattern.matcher(currentLine).region(start, currentLine.length());
+            if (m.matches()) {
+                String ret = new String(m.group().getBytes(StandardCharsets.ISO_8859_1), ENCODING);
+                currentLine.setLength(0);
+                output.clear();
+                return ret;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Byte buffer keeping only the last written bytes, growing on demand up to its capacity
+     */
+    static class RingBuffer {
+        private static final int INITIAL_SIZE = 4096;
+
+        private final int capacity;
+        private byte[] buffer;
+        private int end, size;
+        private boolean truncated;
+
+        RingBuffer(int capacity) {
+            this.capacity = capacity;
+            this.buffer = new byte[Math.min(capacity, INITIAL_SIZE)];
+        }
+
+        void write(byte[] data, int offset, int length) {
+            if (size + length > buffer.length && buffer.length < capacity) {
+                byte[] grown = Arrays.copyOf(toByteArray(), Math.min(capacity, Math.max(buffer.length * 2, size + length)));
+                end = size;
+                buffer = grown;
+            }
+            if (length > buffer.length) {
+                offset += length - buffer.length;
+                length = buffer.length;
+                truncated = true;
+            }
+            int first = Math.min(length, buffer.length - end);
+            System.arraycopy(data, offset, buffer, end, first);
+            System.arraycopy(data, offset + first, buffer, 0, length - first);
+            end = (end + length) % buffer.length;
+            size += length;
+            if (size > buffer.length) {
+                size = buffer.length;
+                truncated = true;
+            }
+        }
+
+        void clear() {
+            end = size = 0;
+            truncated = false;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        boolean isTruncated() {
+            return truncated;
+        }
+
+        byte[] toByteArray() {
+            byte[] ret = new byte[size];
+            int start = (end - size + buffer.length) % buffer.length;
+            int first = Math.min(size, buffer.length - start);
+            System.arraycopy(buffer, start, ret, 0, first);
+            System.arraycopy(buffer, 0, ret, first, size - first);
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repeats the token requests failing with a transient error (throttling, network errors), waiting
+ * between attempts with capped exponential backoff and full jitter, so that parallel requests do not
+ * retry in lockstep. Permanent errors are reported immediately.
+ * A circuit breaker per domain owner (AWS account) stops requesting tokens for an account that keeps
+ * failing: after too many consecutive requests failing with transient errors, once retried, its requests fail
+ * at once during a cooldown period, after which a single request is let through to probe the account again.
+ */
+public class RetryingInvoker implements AuthTokenInvoker {
+
+    static final int MAX_ATTEMPTS = 4;
+    static final long BASE_DELAY_MS = 500;
+    static final long MAX_DELAY_MS = 8000;
+    static final int FAILURE_THRESHOLD = 5;
+    static final long COOLDOWN_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * State of the requests to an account, shared by all the invokers
+     */
+    private static class CircuitBreaker {
+        private int consecutiveFailures;
+        private long openUntil;
+        private boolean probing;
+
+        /**
+         * Checks that a request can be sent to the account, failing otherwise
+         */
+        synchronized void acquire(String domainOwner) throws OperationException {
+            if (consecutiveFailures >= FAILURE_THRESHOLD) {
+                long wait = openUntil - System.currentTimeMillis();
+                if (wait > 0 || probing) {
+                    throw new OperationException("Requests to account %s suspended after %d consecutive failures, "
+                            + "retrying in %d s", domainOwner, consecutiveFailures,
+                            TimeUnit.MILLISECONDS.toSeconds(Math.max(wait, 0)) + 1);
+                }
+                // half open: this request probes the account, any other one keeps failing until it completes
+                probing = true;
+            }
+        }
+
+        /**
+         * Returns true if the requests to the account are suspended, due to other failing requests
+         */
+        synchronized boolean isOpen() {
+            return consecutiveFailures >= FAILURE_THRESHOLD && openUntil > System.currentTimeMillis();
+        }
+
+        synchronized void succeeded() {
+            consecutiveFailures = 0;
+            probing = false;
+        }
+
+        synchronized void failed() {
+            probing = false;
+            if (++consecutiveFailures >= FAILURE_THRESHOLD) {
+                openUntil = System.currentTimeMillis() + COOLDOWN_MS;
+            }
+        }
+
+        /**
+         * Request cancelled or failed permanently: the account availability is still unknown
+         */
+        synchronized void released() {
+            probing = false;
+        }
+    }
+
+    private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private final AuthTokenInvoker invoker;
+
+    public RetryingInvoker(AuthTokenInvoker invoker) {
+        this.invoker = invoker;
+    }
+
+    @Override
+    public AuthToken getAuthToken(String domain,
+                                  String domainOwner,
+                                  String awsProfile,
+                                  String awsRegion,
+                                  AWSInvoker.BackgroundController controller) throws OperationException {
+        CircuitBreaker breaker = BREAKERS.computeIfAbsent(domainOwner, x -> new CircuitBreaker());
+        // the breaker counts failing requests, not attempts
+        breaker.acquire(domainOwner);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                AuthToken ret = invoker.getAuthToken(domain, domainOwner, awsProfile, awsRegion, controller);
+                if (ret == null) {
+                    breaker.released();
+                } else {
+                    breaker.succeeded();
+                }
+                return ret;
+            } catch (TransientOperationException ex) {
+                // no more retries if the circuit opened meanwhile, due to other requests
+                if (attempt == MAX_ATTEMPTS || controller.isCancelled() || breaker.isOpen()) {
+                    breaker.failed();
+                    throw ex;
+                }
+                long delay = getDelay(attempt);
+                LOGGER.info(String.format("Token request for %s/%s failed (attempt %d), retrying in %d ms: %s",
+                        domain, domainOwner, attempt, delay, ex.getMessage()));
+                if (!sleep(delay, controller)) {
+                    breaker.released();
+                    return null;
+                }
+            } catch (OperationException | RuntimeException ex) {
+                breaker.released();
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Full jitter: random delay between 0 and the capped exponential backoff for the given attempt
+     */
+    static long getDelay(int attempt) {
+        long backoff = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(attempt - 1, 16));
+        return ThreadLocalRandom.current().nextLong(backoff + 1);
+    }
+
+    /**
+     * Waits the given time, returning false if the request is cancelled meanwhile
+     */
+    private static boolean sleep(long delayMs, AWSInvoker.BackgroundController controller) {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        Runnable cancelListener = cancelled::countDown;
+        controller.addCancelListener(cancelListener);
+        try {
+            return !cancelled.await(delayMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            return false;
+        } finally {
+            controller.removeCancelListener(cancelListener);
+        }
+    }
+
+    private final static Logger LOGGER = Logger.getInstance(RetryingInvoker.class);
+}
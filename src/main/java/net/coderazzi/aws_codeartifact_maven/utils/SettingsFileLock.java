@@ -0,0 +1,99 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Advisory lock on the maven settings file, shared with other processes (other IDE instances, the
+ * command line refresh). It is only held while the file is re-read, patched and moved into place,
+ * never while tokens are requested.
+ * The lock is taken on a sibling file, as the settings file itself is replaced on each update.
+ */
+final class SettingsFileLock implements AutoCloseable {
+
+    private static final long TIMEOUT_MS = 10_000;
+    private static final long RETRY_MS = 20;
+
+    /**
+     * File locks are held per process: threads in this process are serialized first
+     */
+    private static final Map<Path, ReentrantLock> LOCAL_LOCKS = new ConcurrentHashMap<>();
+
+    private final ReentrantLock localLock;
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private SettingsFileLock(ReentrantLock localLock, FileChannel channel, FileLock lock) {
+        this.localLock = localLock;
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * Waits until the lock is acquired
+     *
+     * @throws IOException if the lock cannot be obtained in a reasonable time
+     */
+    static SettingsFileLock acquire(Path settings) throws IOException {
+        Path path = settings.toAbsolutePath();
+        Path lockPath = path.resolveSibling(path.getFileName() + ".lock");
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        ReentrantLock localLock = LOCAL_LOCKS.computeIfAbsent(lockPath, x -> new ReentrantLock());
+        try {
+            if (!localLock.tryLock(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timeout waiting for another update of the settings file");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the settings file lock");
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            while (true) {
+                FileLock lock = channel.tryLock();
+                if (lock != null) {
+                    return new SettingsFileLock(localLock, channel, lock);
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Settings file locked by another process: " + lockPath);
+                }
+                Thread.sleep(RETRY_MS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            close(channel, localLock);
+            throw new IOException("Interrupted waiting for the settings file lock");
+        } catch (IOException | OverlappingFileLockException ex) {
+            close(channel, localLock);
+            throw ex instanceof IOException io ? io : new IOException(ex.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            lock.release();
+        } finally {
+            close(channel, localLock);
+        }
+    }
+
+    private static void close(FileChannel channel, ReentrantLock localLock) throws IOException {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            localLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.*;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Streaming rewriter of the maven settings file, that only patches the password of the given servers.
+ * Anything else (whitespace, comments, xml declaration) is copied through untouched: the file is read
+ * as ISO-8859-1, mapping each byte to a char, so the output is byte-identical outside the patched
+ * passwords, for any ASCII compatible encoding (UTF-8 included).
+ * Only the content of the server being processed is kept in memory.
+ */
+final class SettingsFileRewriter {
+
+    private static final List<String> SERVER_PATH = List.of("settings", "servers", "server");
+    private static final int SERVER_DEPTH = SERVER_PATH.size();
+    private static final String CDATA_START = "<![CDATA[";
+    private static final String CDATA_END = "]]>";
+    private static final int CDATA_MARKUP_LENGTH = CDATA_START.length() + CDATA_END.length();
+
+    /**
+     * Raised when the servers to update are not found by the streaming parser (unusual encoding, or format)
+     */
+    static class FormatException extends Exception {
+        FormatException(String reason) {
+            super(reason);
+        }
+    }
+
+    private final Map<String, String> passwords = new HashMap<>();
+    private final Set<String> located = new HashSet<>();
+    private final Deque<String> path = new ArrayDeque<>();
+    private boolean changed;
+
+    // status of the server being processed (buffer is null when outside a server)
+    private StringBuilder buffer;
+    private StringBuilder idText;
+    private String id, childIndent;
+    private int passwordCount, passwordStart, passwordEnd, lastChildEnd;
+    private boolean passwordSelfClosed;
+
+    /**
+     * @param passwords the password to set, per server id
+     */
+    private SettingsFileRewriter(Map<String, String> passwords) {
+        // ids and passwords are compared / written as their UTF-8 bytes
+        passwords.forEach((k, v) -> this.passwords.put(asBytes(k), asBytes(escape(v))));
+    }
+
+    /**
+     * Updates the passwords of the given servers in the settings file.
+     * The file is not written at all if there are no changes
+     *
+     * @return true if the file has been modified
+     * @throws FormatException if any server cannot be located, so the file cannot be patched in place
+     */
+    static boolean rewrite(Path settings, Map<String, String> passwords) throws IOException, FormatException {
+        SettingsFileRewriter check = new SettingsFileRewriter(passwords);
+        try (Reader in = createReader(settings)) {
+            check.process(in, Writer.nullWriter());
+        }
+        for (String serverId : passwords.keySet()) {
+            if (!check.located.contains(asBytes(serverId))) {
+                throw new FormatException(String.format("Cannot locate server '%s'", serverId));
+            }
+        }
+        if (!check.changed) {
+            return false;
+        }
+        Path temp = Files.createTempFile(settings.toAbsolutePath().getParent(), "settings-tmp-", ".xml");
+        try {
+            copyPermissions(settings, temp);
+            try (Reader in = createReader(settings);
+                 Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(temp),
+                         StandardCharsets.ISO_8859_1))) {
+                new SettingsFileRewriter(passwords).process(in, out);
+            }
+            replace(temp, settings);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return true;
+    }
+
+    /**
+     * Moves the new content into place. The move is atomic if the file system supports it, so that
+     * any concurrent reader gets either the old or the new file, never a missing one
+     */
+    static void replace(Path source, Path settings) throws IOException {
+        try {
+            Files.move(source, settings, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source, settings, REPLACE_EXISTING);
+        }
+    }
+
+    private static Reader createReader(Path settings) throws IOException {
+        return new BufferedReader(new InputStreamReader(Files.newInputStream(settings), StandardCharsets.ISO_8859_1));
+    }
+
+    private static void copyPermissions(Path source, Path target) {
+        try {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(source);
+            Files.setPosixFilePermissions(target, permissions);
+        } catch (IOException | UnsupportedOperationException ex) {
+            // not a posix file system, nothing to do
+        }
+    }
+
+    private void process(Reader in, Writer out) throws IOException {
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c != '<') {
+                emit(out, (char) c);
+                if (idText != null) {
+                    idText.append((char) c);
+                }
+                continue;
+            }
+            StringBuilder markup = new StringBuilder("<");
+            int next = readChar(in, markup);
+            if (next == '!') {
+                next = readChar(in, markup);
+                if (next == '-') {
+                    readUntil(in, markup, "-->");
+                } else if (next == '[') {
+                    readUntil(in, markup, "]]>");
+                    if (idText != null && markup.length() >= CDATA_MARKUP_LENGTH) {
+                        idText.append(markup, CDATA_START.length(), markup.length() - CDATA_END.length());
+                    }
+                } else {
+                    readDeclaration(in, markup);
+                }
+            } else if (next == '?') {
+                readUntil(in, markup, "?>");
+            } else if (next != -1) {
+                readTag(in, markup);
+                emitTag(out, markup);
+                continue;
+            }
+            emit(out, markup);
+        }
+        if (buffer != null) {
+            // unterminated server, just copy it
+            out.append(buffer);
+        }
+    }
+
+    private void emitTag(Writer out, StringBuilder tag) throws IOException {
+        boolean endTag = tag.charAt(1) == '/';
+        boolean selfClosed = !endTag && tag.length() > 2 && tag.charAt(tag.length() - 2) == '/';
+        String name = getLocalName(tag, endTag ? 2 : 1);
+        if (endTag) {
+            int depth = path.size();
+            if (buffer != null && depth == SERVER_DEPTH) {
+                // end of server
+                patchServer();
+                buffer.append(tag);
+                out.append(buffer);
+                buffer = null;
+            } else {
+                if (buffer != null && depth == SERVER_DEPTH + 1) {
+                    if (name.equals("id") && idText != null) {
+                        id = decode(idText.toString());
+                        idText = null;
+                    } else if (name.equals(MavenSettingsFileHandler.PASSWORD)) {
+                        passwordEnd = buffer.length();
+                    }
+                    emit(out, tag);
+                    lastChildEnd = buffer.length();
+                } else {
+                    emit(out, tag);
+                }
+            }
+            if (!path.isEmpty()) {
+                path.pop();
+            }
+            return;
+        }
+        if (buffer == null && !selfClosed && path.size() == SERVER_DEPTH - 1 && name.equals("server")
+                && isServersPath()) {
+            startServer();
+        } else if (buffer != null && path.size() == SERVER_DEPTH) {
+            // direct child of server
+            if (childIndent == null) {
+                childIndent = getTrailingWhitespace();
+            }
+            if (name.equals(MavenSettingsFileHandler.PASSWORD)) {
+                passwordCount++;
+                passwordSelfClosed = selfClosed;
+                passwordStart = buffer.length() + (selfClosed ? 0 : tag.length());
+                passwordEnd = buffer.length() + tag.length();
+            } else if (name.equals("id") && !selfClosed) {
+                idText = new StringBuilder();
+            }
+        }
+        emit(out, tag);
+        if (selfClosed) {
+            if (buffer != null && path.size() == SERVER_DEPTH) {
+                lastChildEnd = buffer.length();
+            }
+        } else {
+            path.push(name);
+        }
+    }
+
+    private void startServer() {
+        buffer = new StringBuilder();
+        idText = null;
+        id = null;
+        childIndent = null;
+        passwordCount = 0;
+        lastChildEnd = -1;
+    }
+
+    private void patchServer() {
+        String password = id == null ? null : passwords.get(id);
+        if (password == null || passwordCount > 1) {
+            return;
+        }
+        located.add(id);
+        if (passwordCount == 0) {
+            int position = lastChildEnd < 0 ? buffer.length() : lastChildEnd;
+            buffer.insert(position, (childIndent == null ? "" : childIndent)
+                    + "<" + MavenSettingsFileHandler.PASSWORD + ">" + password
+                    + "</" + MavenSettingsFileHandler.PASSWORD + ">");
+            changed = true;
+        } else if (passwordSelfClosed) {
+            buffer.replace(passwordStart, passwordEnd, "<" + MavenSettingsFileHandler.PASSWORD + ">" + password
+                    + "</" + MavenSettingsFileHandler.PASSWORD + ">");
+            changed = true;
+        } else if (!password.contentEquals(buffer.subSequence(passwordStart, passwordEnd))) {
+            buffer.replace(passwordStart, passwordEnd, password);
+            changed = true;
+        }
+    }
+
+    private boolean isServersPath() {
+        Iterator<String> it = path.descendingIterator();
+        for (int i = 0; i < SERVER_DEPTH - 1; i++) {
+            if (!it.hasNext() || !it.next().equals(SERVER_PATH.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the whitespace preceding the current position in the buffer, if it includes a line break
+     */
+    private String getTrailingWhitespace() {
+        int start = buffer.length();
+        while (start > 0 && Character.isWhitespace(buffer.charAt(start - 1))) {
+            start--;
+        }
+        String ret = buffer.substring(start);
+        return ret.indexOf('\n') == -1 ? null : ret;
+    }
+
+    private void emit(Writer out, char c) throws IOException {
+        if (buffer == null) {
+            out.write(c);
+        } else {
+            buffer.append(c);
+        }
+    }
+
+    private void emit(Writer out, CharSequence text) throws IOException {
+        if (buffer == null) {
+            out.append(text);
+        } else {
+            buffer.append(text);
+        }
+    }
+
+    private static int readChar(Reader in, StringBuilder markup) throws IOException {
+        int ret = in.read();
+        if (ret != -1) {
+            markup.append((char) ret);
+        }
+        return ret;
+    }
+
+    private static void readUntil(Reader in, StringBuilder markup, String end) throws IOException {
+        int c;
+        while ((c = in.read()) != -1) {
+            markup.append((char) c);
+            if (c == end.charAt(end.length() - 1) && endsWith(markup, end)) {
+                return;
+            }
+        }
+    }
+
+    private static boolean endsWith(StringBuilder markup, String end) {
+        int offset = markup.length() - end.length();
+        if (offset < 0) {
+            return false;
+        }
+        for (int i = end.length() - 1; i >= 0; i--) {
+            if (markup.charAt(offset + i) != end.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a declaration like DOCTYPE, handling any internal subset
+     */
+    private static void readDeclaration(Reader in, StringBuilder markup) throws IOException {
+        int c, brackets = 0;
+        while ((c = in.read()) != -1) {
+            markup.append((char) c);
+            if (c == '[') {
+                brackets++;
+            } else if (c == ']') {
+                brackets--;
+            } else if (c == '>' && brackets <= 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads a start or end tag, considering that attribute values could include the '>' character
+     */
+    private static void readTag(Reader in, StringBuilder markup) throws IOException {
+        if (markup.charAt(markup.length() - 1) == '>') {
+            return;
+        }
+        char quote = 0;
+        int c;
+        while ((c = in.read()) != -1) {
+            markup.append((char) c);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = (char) c;
+            } else if (c == '>') {
+                return;
+            }
+        }
+    }
+
+    private static String getLocalName(StringBuilder tag, int start) {
+        int end = start;
+        while (end < tag.length() && !Character.isWhitespace(tag.charAt(end))
+                && tag.charAt(end) != '>' && tag.charAt(end) != '/') {
+            end++;
+        }
+        String name = tag.substring(start, end);
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    private static String decode(String text) {
+        if (text.indexOf('&') == -1) {
+            return text;
+        }
+        return text.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+                .replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * Represents the UTF-8 bytes of the text as a String, one char per byte
+     */
+    private static String asBytes(String text) {
+        return new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,201 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Set;
+
+/**
+ * Token cache shared by all the processes of the user (IDE instances, command line refresh), stored
+ * under the user home with owner-only permissions. There is a file per request (domain, domain owner,
+ * profile and region), holding a single line record: obtained time, expiration, and token.
+ * A process requesting a token not found in the cache locks the request: any other process needing it
+ * waits, and then reuses the obtained token.
+ */
+public class SharedTokenCache implements AuthTokenInvoker {
+
+    private static final String RECORD_VERSION = "1";
+    private static final long LOCK_RETRY_MS = 100;
+    private static final Path DIRECTORY = Paths.get(System.getProperty("user.home", "."),
+            ".aws_codeartifact_maven", "tokens");
+
+    private final AuthTokenInvoker invoker;
+    private final long minValidityMs;
+
+    /**
+     * @param minValidityMs cached tokens are only used if valid for longer than this. If Long.MAX_VALUE,
+     *                      only tokens obtained while waiting for another process are used
+     */
+    public SharedTokenCache(AuthTokenInvoker invoker, long minValidityMs) {
+        this.invoker = invoker;
+        this.minValidityMs = minValidityMs;
+    }
+
+    @Override
+    public AuthToken getAuthToken(String domain,
+                                  String domainOwner,
+                                  String awsProfile,
+                                  String awsRegion,
+                                  AWSInvoker.BackgroundController controller) throws OperationException {
+        long requested = System.currentTimeMillis();
+        String name = getFileName(TokenRequestCoordinator.getRequestKey(domain, domainOwner, awsProfile, awsRegion));
+        Path tokenFile = DIRECTORY.resolve(name + ".token");
+        AuthToken ret = read(tokenFile, requested);
+        if (ret != null) {
+            return ret;
+        }
+        FileChannel channel = openLockFile(DIRECTORY.resolve(name + ".lock"));
+        if (channel == null) {
+            return invoker.getAuthToken(domain, domainOwner, awsProfile, awsRegion, controller);
+        }
+        try (channel) {
+            FileLock lock = lock(channel, controller);
+            if (lock == null) {
+                return null;
+            }
+            try {
+                // another process could have obtained the token while waiting
+                ret = read(tokenFile, requested);
+                if (ret == null) {
+                    ret = invoker.getAuthToken(domain, domainOwner, awsProfile, awsRegion, controller);
+                    if (ret != null && ret.expiration > 0) {
+                        write(tokenFile, ret);
+                    }
+                }
+                return ret;
+            } finally {
+                lock.release();
+            }
+        } catch (IOException ex) {
+            throw new OperationException("Error accessing the shared token cache: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns the cached token, if it can be used
+     */
+    private AuthToken read(Path tokenFile, long requested) {
+        String[] record;
+        long obtained, expiration;
+        try {
+            record = Files.readString(tokenFile, StandardCharsets.US_ASCII).trim().split(" ", 4);
+            if (record.length != 4 || !RECORD_VERSION.equals(record[0])) {
+                return null;
+            }
+            obtained = Long.parseLong(record[1]);
+            expiration = Long.parseLong(record[2]);
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException | NumberFormatException ex) {
+            LOGGER.info("Ignoring shared token cache entry " + tokenFile + ": " + ex.getMessage());
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (expiration <= now) {
+            delete(tokenFile);
+            return null;
+        }
+        boolean valid = minValidityMs == Long.MAX_VALUE ? obtained >= requested : expiration - now > minValidityMs;
+        return valid ? new AuthToken(record[3], expiration) : null;
+    }
+
+    /**
+     * Replaces atomically the cached token: other processes read either the previous or the new record
+     */
+    private static void write(Path tokenFile, AuthToken token) {
+        String record = String.join(" ", RECORD_VERSION, String.valueOf(System.currentTimeMillis()),
+                String.valueOf(token.expiration), token.token) + "\n";
+        try {
+            // temporary files are created with owner-only permissions
+            Path temp = Files.createTempFile(DIRECTORY, "token-", ".tmp");
+            try {
+                Files.writeString(temp, record, StandardCharsets.US_ASCII);
+                SettingsFileRewriter.replace(temp, tokenFile);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException ex) {
+            LOGGER.warn("Cannot update the shared token cache: " + ex.getMessage());
+        }
+    }
+
+    private static void delete(Path tokenFile) {
+        try {
+            Files.deleteIfExists(tokenFile);
+        } catch (IOException ex) {
+            // removed on next write
+        }
+    }
+
+    /**
+     * Returns the channel of the lock file, creating the cache directory if needed, or null on error
+     */
+    private static FileChannel openLockFile(Path lockFile) {
+        try {
+            if (!Files.isDirectory(DIRECTORY)) {
+                Files.createDirectories(DIRECTORY, ownerOnly("rwx------"));
+            }
+            return FileChannel.open(lockFile, Set.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE),
+                    ownerOnly("rw-------"));
+        } catch (IOException ex) {
+            LOGGER.warn("Shared token cache not available: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private static FileAttribute<?>[] ownerOnly(String permissions) {
+        if (DIRECTORY.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(permissions))};
+        }
+        // elsewhere, the user home is already private
+        return new FileAttribute<?>[0];
+    }
+
+    /**
+     * Waits until the lock is acquired, returning null if cancelled meanwhile.
+     * The lock is held by another process while it requests the token, which can take long (MFA)
+     */
+    private static FileLock lock(FileChannel channel, AWSInvoker.BackgroundController controller) throws IOException {
+        while (!controller.isCancelled()) {
+            try {
+                FileLock ret = channel.tryLock();
+                if (ret != null) {
+                    return ret;
+                }
+            } catch (OverlappingFileLockException ex) {
+                // held by a cancelled request of this process, still completing
+            }
+            try {
+                Thread.sleep(LOCK_RETRY_MS);
+            } catch (InterruptedException ex) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static String getFileName(TokenRequestCoordinator.RequestKey key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(key.asText().getBytes(StandardCharsets.UTF_8)), 0, 16);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private final static Logger LOGGER = Logger.getInstance(SharedTokenCache.class);
+}
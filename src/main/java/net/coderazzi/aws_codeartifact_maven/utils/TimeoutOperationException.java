@@ -0,0 +1,15 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+/**
+ * Raised when a token request does not complete within the configured timeout.
+ * It is not retried: a hung request would otherwise multiply the wait.
+ */
+public class TimeoutOperationException extends OperationException {
+
+    public final int timeoutSeconds;
+
+    public TimeoutOperationException(int timeoutSeconds) {
+        super("Timed out after %d s", timeoutSeconds);
+        this.timeoutSeconds = timeoutSeconds;
+    }
+}
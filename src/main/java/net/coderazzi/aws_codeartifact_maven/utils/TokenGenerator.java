@@ -0,0 +1,349 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+import net.coderazzi.aws_codeartifact_maven.state.AwsConfiguration;
+import net.coderazzi.aws_codeartifact_maven.state.Configuration;
+import net.coderazzi.aws_codeartifact_maven.state.GeneratedToken;
+import net.coderazzi.aws_codeartifact_maven.state.GenerationRun;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Obtains the auth token for a configuration and stores it in the maven settings file.
+ * It is used from the generation dialog, but also from the background refresh.
+ * When generating tokens for multiple configurations, a batch can be started: the settings
+ * file is then read once, and written once on flush, with all the obtained tokens.
+ * Configurations sharing domain, domain owner, profile and region obtain a single token, that
+ * is written to each of their maven server ids.
+ * Each generation is timed per phase; the durations are reported to the listener and kept in the state.
+ */
+public class TokenGenerator {
+
+    public enum Phase {
+        VALIDATING("Validating configuration"),
+        CHECKING_SETTINGS("Checking settings file"),
+        OBTAINING_TOKEN("Obtaining AWS Auth Token"),
+        UPDATING_SETTINGS("Updating settings file");
+
+        Phase(String description) {
+            this.description = description;
+        }
+
+        final public String description;
+    }
+
+    public interface PhaseListener {
+        void phaseStarted(Phase phase);
+
+        /**
+         * Called once the generation completes, including the settings file update for batched tokens
+         */
+        default void generationCompleted(GenerationRun run) {
+        }
+    }
+
+    /**
+     * Keeps the information on the tokens written to the settings file, per configuration
+     */
+    public interface GeneratedTokens {
+        GeneratedToken getGeneratedToken(String configurationName);
+
+        void setGeneratedToken(String configurationName, GeneratedToken token);
+
+        default void addGenerationRun(String configurationName, GenerationRun run) {
+        }
+    }
+
+    public enum Outcome {
+        GENERATED,
+        /**
+         * Token obtained in a batch, the settings file is updated on flush
+         */
+        PENDING,
+        STILL_VALID,
+        CANCELLED
+    }
+
+    public static class Result {
+        public final Outcome outcome;
+        /**
+         * Expiration of the token in the settings file, in milliseconds since the epoch; 0 if unknown
+         */
+        public final long expiration;
+
+        Result(Outcome outcome, long expiration) {
+            this.outcome = outcome;
+            this.expiration = expiration;
+        }
+    }
+
+    // the settings file is read, patched and written by one generation at a time, by any generator
+    private static final Object SETTINGS_FILE_LOCK = new Object();
+
+    /**
+     * Measures the phases of a generation, forwarding them to the listener
+     */
+    private static class PhaseTimer {
+        final PhaseListener listener;
+        final GenerationRun run = new GenerationRun(System.currentTimeMillis());
+        private Phase current;
+        private long currentStart;
+
+        PhaseTimer(PhaseListener listener) {
+            this.listener = listener;
+        }
+
+        void start(Phase phase) {
+            stop();
+            current = phase;
+            currentStart = System.nanoTime();
+            listener.phaseStarted(phase);
+        }
+
+        void stop() {
+            if (current != null) {
+                run.addDuration(current, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - currentStart));
+                current = null;
+            }
+        }
+    }
+
+    private final GeneratedTokens state;
+    private final String mavenSettingsFile;
+    private final AuthTokenInvoker invoker;
+    private final long refreshThresholdMs;
+    private final Map<String, GeneratedToken> pendingTokens = new HashMap<>();
+    private final Map<String, PhaseTimer> pendingTimers = new HashMap<>();
+    // tokens obtained in the current batch, reused by any other configuration sharing the request
+    private final Map<TokenRequestCoordinator.RequestKey, AuthToken> batchTokens = new HashMap<>();
+    private TokenPrefetch prefetch;
+    private MavenSettingsFileHandler batchSettings;
+    private OperationException batchError;
+
+    /**
+     * @param refreshThresholdMs tokens that are still valid for longer than this threshold are not
+     *                           requested again. Use Long.MAX_VALUE to always request a new token
+     */
+    public TokenGenerator(Configuration state, long refreshThresholdMs) {
+        this(state.getMavenServerSettingsFile(), createInvoker(state, refreshThresholdMs), state, refreshThresholdMs);
+    }
+
+    /**
+     * Constructor used outside the IDE, where the plugin configuration is not available
+     */
+    public TokenGenerator(String mavenSettingsFile,
+                          AuthTokenInvoker invoker,
+                          GeneratedTokens generatedTokens,
+                          long refreshThresholdMs) {
+        this.state = generatedTokens;
+        this.mavenSettingsFile = mavenSettingsFile;
+        this.invoker = invoker;
+        this.refreshThresholdMs = refreshThresholdMs;
+    }
+
+    /**
+     * @param connectTimeoutSeconds    timeout to connect to AWS
+     * @param requestTimeoutSeconds    maximum time for each request to AWS (or each aws cli invocation)
+     * @param sharedCacheMinValidityMs if not null, the tokens are looked up first in the cache shared with other
+     *                                 processes, using this minimum validity
+     */
+    public static AuthTokenInvoker createInvoker(String awsPath,
+                                                 boolean nativeClient,
+                                                 String endpointUrl,
+                                                 int connectTimeoutSeconds,
+                                                 int requestTimeoutSeconds,
+                                                 Long sharedCacheMinValidityMs) {
+        AuthTokenInvoker cliInvoker = new AWSInvoker(awsPath, connectTimeoutSeconds, requestTimeoutSeconds);
+        AuthTokenInvoker ret = nativeClient
+                ? new AWSNativeInvoker(endpointUrl, cliInvoker, connectTimeoutSeconds, requestTimeoutSeconds)
+                : cliInvoker;
+        // retries are shared by all the processes waiting for the token, and the cache is written only once
+        ret = new RetryingInvoker(ret);
+        if (sharedCacheMinValidityMs != null) {
+            ret = new SharedTokenCache(ret, sharedCacheMinValidityMs);
+        }
+        // requests in flight are only merged with those obtaining the token in the same way
+        return new TokenRequestCoordinator(ret, String.join("|", awsPath, String.valueOf(nativeClient),
+                String.valueOf(endpointUrl), String.valueOf(connectTimeoutSeconds),
+                String.valueOf(requestTimeoutSeconds), String.valueOf(sharedCacheMinValidityMs)));
+    }
+
+    public static AuthTokenInvoker createInvoker(Configuration state, long refreshThresholdMs) {
+        return createInvoker(state.getAWSPath(), state.isNativeClient(), state.getEndpointUrl(),
+                state.getConnectTimeoutSeconds(), state.getRequestTimeoutSeconds(),
+                state.isSharedTokenCache() ? refreshThresholdMs : null);
+    }
+
+    /**
+     * Reuses the tokens of the given prefetch, if any, instead of requesting them again
+     */
+    public void setPrefetch(TokenPrefetch prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Starts a batch: the settings file is read now, for all the given maven server ids
+     */
+    public synchronized void startBatch(Collection<String> mavenServerIds) {
+        batchSettings = new MavenSettingsFileHandler(mavenSettingsFile);
+        batchTokens.clear();
+        try {
+            batchSettings.locateServers(mavenServerIds);
+            batchError = null;
+        } catch (OperationException ex) {
+            batchError = ex;
+        }
+    }
+
+    public Result generate(String name,
+                           AwsConfiguration configuration,
+                           AWSInvoker.BackgroundController controller,
+                           PhaseListener listener) throws OperationException {
+        PhaseTimer timer = new PhaseTimer(listener);
+        Result ret;
+        try {
+            ret = generateToken(name, configuration, controller, timer);
+        } catch (OperationException | RuntimeException ex) {
+            complete(name, timer,
+                    ex instanceof TimeoutOperationException ? GenerationRun.TIMED_OUT : GenerationRun.FAILED);
+            throw ex;
+        }
+        if (ret.outcome == Outcome.PENDING) {
+            // the time waiting for the flush is not accounted
+            timer.stop();
+        } else {
+            complete(name, timer, ret.outcome.name());
+        }
+        return ret;
+    }
+
+    private Result generateToken(String name,
+                                 AwsConfiguration configuration,
+                                 AWSInvoker.BackgroundController controller,
+                                 PhaseTimer timer) throws OperationException {
+        timer.start(Phase.VALIDATING);
+        checkNotEmptyString(configuration.domain, "domain");
+        checkNotEmptyString(configuration.domainOwner, "domainOwner");
+        checkNotEmptyString(configuration.mavenServerId, "mavenServerId");
+        timer.start(Phase.CHECKING_SETTINGS);
+        MavenSettingsFileHandler mavenSettingsFileHandler = getSettings(configuration.mavenServerId);
+        String fingerprint = GeneratedToken.fingerprint(mavenSettingsFile, configuration);
+        GeneratedToken current = state.getGeneratedToken(name);
+        // fails if the server is not in the settings file, before requesting any token
+        String password = mavenSettingsFileHandler.getPassword(configuration.mavenServerId);
+        if (current != null && refreshThresholdMs != Long.MAX_VALUE
+                && current.remainingValidity(fingerprint, password) > refreshThresholdMs) {
+            return new Result(Outcome.STILL_VALID, current.expiration);
+        }
+        if (controller.isCancelled()) {
+            return new Result(Outcome.CANCELLED, 0);
+        }
+        timer.start(Phase.OBTAINING_TOKEN);
+        AuthToken token = getAuthToken(configuration, mavenSettingsFileHandler == batchSettings, controller);
+        if (token == null || controller.isCancelled()) {
+            return new Result(Outcome.CANCELLED, 0);
+        }
+        mavenSettingsFileHandler.updatePassword(configuration.mavenServerId, token.token);
+        GeneratedToken generated = new GeneratedToken(token.expiration, fingerprint, token.token);
+        if (mavenSettingsFileHandler == batchSettings) {
+            synchronized (this) {
+                pendingTokens.put(name, generated);
+                pendingTimers.put(name, timer);
+            }
+            return new Result(Outcome.PENDING, token.expiration);
+        }
+        timer.start(Phase.UPDATING_SETTINGS);
+        // read again: other generations may have written their tokens meanwhile
+        synchronized (SETTINGS_FILE_LOCK) {
+            mavenSettingsFileHandler.locateServers(List.of(configuration.mavenServerId));
+            mavenSettingsFileHandler.updatePassword(configuration.mavenServerId, token.token);
+            mavenSettingsFileHandler.flush();
+        }
+        storeGeneratedToken(name, generated);
+        return new Result(Outcome.GENERATED, token.expiration);
+    }
+
+    /**
+     * Writes the settings file with all the tokens obtained in the current batch
+     */
+    public synchronized void flush() throws OperationException {
+        if (batchSettings != null) {
+            pendingTimers.values().forEach(timer -> timer.start(Phase.UPDATING_SETTINGS));
+            try {
+                batchSettings.flush();
+                pendingTokens.forEach(this::storeGeneratedToken);
+                pendingTimers.forEach((name, timer) -> complete(name, timer, Outcome.GENERATED.name()));
+            } catch (OperationException ex) {
+                pendingTimers.forEach((name, timer) -> complete(name, timer, GenerationRun.FAILED));
+                throw ex;
+            } finally {
+                pendingTokens.clear();
+                pendingTimers.clear();
+            }
+        }
+    }
+
+    private AuthToken getAuthToken(AwsConfiguration configuration,
+                                   boolean inBatch,
+                                   AWSInvoker.BackgroundController controller) throws OperationException {
+        TokenRequestCoordinator.RequestKey key = TokenRequestCoordinator.getRequestKey(configuration.domain,
+                configuration.domainOwner, configuration.profile, configuration.region);
+        AuthToken ret = prefetch == null ? null : prefetch.getToken(key);
+        if (ret != null) {
+            return ret;
+        }
+        if (!inBatch) {
+            return invoker.getAuthToken(configuration.domain, configuration.domainOwner,
+                    configuration.profile, configuration.region, controller);
+        }
+        synchronized (this) {
+            ret = batchTokens.get(key);
+            if (ret != null) {
+                return ret;
+            }
+        }
+        // failures are not reused: another configuration can still succeed if the error was transient
+        ret = invoker.getAuthToken(configuration.domain, configuration.domainOwner,
+                configuration.profile, configuration.region, controller);
+        if (ret != null) {
+            synchronized (this) {
+                batchTokens.put(key, ret);
+            }
+        }
+        return ret;
+    }
+
+    private synchronized MavenSettingsFileHandler getSettings(String mavenServerId) throws OperationException {
+        if (batchSettings != null) {
+            if (batchError != null) {
+                throw batchError;
+            }
+            return batchSettings;
+        }
+        MavenSettingsFileHandler ret = new MavenSettingsFileHandler(mavenSettingsFile);
+        ret.locateServers(List.of(mavenServerId));
+        return ret;
+    }
+
+    private void complete(String name, PhaseTimer timer, String outcome) {
+        timer.stop();
+        timer.run.outcome = outcome;
+        state.addGenerationRun(name, timer.run);
+        timer.listener.generationCompleted(timer.run);
+    }
+
+    private void storeGeneratedToken(String name, GeneratedToken token) {
+        if (token.expiration > 0) {
+            state.setGeneratedToken(name, token);
+        }
+    }
+
+    private static void checkNotEmptyString(String text, String description) throws OperationException {
+        if (text==null || text.isBlank()) {
+            throw new OperationException("Field %s is not defined", description);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+import net.coderazzi.aws_codeartifact_maven.state.AwsConfiguration;
+import net.coderazzi.aws_codeartifact_maven.state.Configuration;
+import net.coderazzi.aws_codeartifact_maven.state.GeneratedToken;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Tokens requested in background while the main dialog is open, before the user asks to generate them.
+ * They are never written to the settings file: the token generator reuses them, as long as the
+ * configurations to generate do not change. A generation started while a prefetch is still in flight
+ * joins it through the TokenRequestCoordinator.
+ * Profiles requiring MFA are not prefetched: the user is never prompted before asking for the tokens.
+ */
+public class TokenPrefetch implements AWSInvoker.BackgroundController {
+
+    /**
+     * Prefetched tokens are not used after this time, the user could have left the dialog open
+     */
+    private static final long MAX_AGE_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private final Set<TokenRequestCoordinator.RequestKey> keys;
+    private final Map<TokenRequestCoordinator.RequestKey, CompletableFuture<AuthToken>> fetches =
+            new ConcurrentHashMap<>();
+    private final Set<Runnable> cancelListeners = ConcurrentHashMap.newKeySet();
+    private final long started = System.currentTimeMillis();
+    private volatile boolean cancelled;
+
+    private TokenPrefetch(Set<TokenRequestCoordinator.RequestKey> keys) {
+        this.keys = keys;
+    }
+
+    /**
+     * Starts requesting the tokens to be generated: those of the current configuration, or of all the
+     * enabled configurations, skipping the ones with a generated token still valid
+     */
+    public static TokenPrefetch start(Configuration state) {
+        long thresholdMs = TimeUnit.MINUTES.toMillis(state.getRefreshThresholdMinutes());
+        long now = System.currentTimeMillis();
+        Map<TokenRequestCoordinator.RequestKey, AwsConfiguration> needed = new HashMap<>();
+        Map<String, AwsConfiguration> selected = getSelectedConfigurations(state);
+        selected.forEach((name, configuration) -> {
+            GeneratedToken generated = state.getGeneratedToken(name);
+            if (generated == null || generated.expiration - now <= thresholdMs) {
+                needed.putIfAbsent(getRequestKey(configuration), configuration);
+            }
+        });
+        TokenPrefetch ret = new TokenPrefetch(getRequestKeys(selected));
+        AuthTokenInvoker invoker = TokenGenerator.createInvoker(state, thresholdMs);
+        Executor executor = PluginExecutor.getInstance().createBoundedExecutor(
+                "token prefetch", state.getParallelGenerations());
+        needed.forEach((key, configuration) -> {
+            CompletableFuture<AuthToken> fetch = new CompletableFuture<>();
+            ret.fetches.put(key, fetch);
+            try {
+                executor.execute(() -> {
+                    try {
+                        fetch.complete(ret.cancelled ? null : invoker.getAuthToken(configuration.domain,
+                                configuration.domainOwner, configuration.profile, configuration.region, ret));
+                    } catch (OperationException | RuntimeException ex) {
+                        fetch.completeExceptionally(ex);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                fetch.complete(null);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * Returns true if the prefetched tokens still correspond to the configurations to generate
+     */
+    public boolean isCurrent(Configuration state) {
+        return !cancelled && keys.equals(getRequestKeys(getSelectedConfigurations(state)));
+    }
+
+    /**
+     * Discards the prefetched tokens, cancelling the requests still in flight
+     */
+    public void cancel() {
+        cancelled = true;
+        cancelListeners.forEach(Runnable::run);
+    }
+
+    /**
+     * Returns the token already prefetched for the given request, or null if not available
+     */
+    AuthToken getToken(TokenRequestCoordinator.RequestKey key) {
+        CompletableFuture<AuthToken> fetch = fetches.get(key);
+        if (cancelled || fetch == null || !fetch.isDone() || fetch.isCompletedExceptionally()
+                || System.currentTimeMillis() - started > MAX_AGE_MS) {
+            return null;
+        }
+        return fetch.getNow(null);
+    }
+
+    private static Map<String, AwsConfiguration> getSelectedConfigurations(Configuration state) {
+        Map<String, AwsConfiguration> ret = new HashMap<>();
+        boolean generateForAll = state.isGenerateForAll();
+        for (String name : state.getConfigurationNames()) {
+            AwsConfiguration configuration = state.getConfiguration(name);
+            if (generateForAll ? configuration.enabled : state.getConfigurationName().equals(name)) {
+                if (isDefined(configuration.domain) && isDefined(configuration.domainOwner)) {
+                    ret.put(name, configuration);
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static Set<TokenRequestCoordinator.RequestKey> getRequestKeys(Map<String, AwsConfiguration> configurations) {
+        return configurations.values().stream().map(TokenPrefetch::getRequestKey)
+                .collect(Collectors.toSet());
+    }
+
+    private static TokenRequestCoordinator.RequestKey getRequestKey(AwsConfiguration configuration) {
+        return TokenRequestCoordinator.getRequestKey(configuration.domain, configuration.domainOwner,
+                configuration.profile, configuration.region);
+    }
+
+    private static boolean isDefined(String text) {
+        return text != null && !text.isBlank();
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public String requestMfaCode(String request) throws OperationException {
+        throw new OperationException("MFA code required, token not prefetched");
+    }
+
+    @Override
+    public void addCancelListener(Runnable listener) {
+        cancelListeners.add(listener);
+        if (cancelled) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public void removeCancelListener(Runnable listener) {
+        cancelListeners.remove(listener);
+    }
+}
@@ -0,0 +1,245 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+import net.coderazzi.aws_codeartifact_maven.state.Configuration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Merges identical token requests in flight. A CodeArtifact token is scoped to the domain, not to the
+ * maven server id: all the requests sharing domain, domain owner, profile and region can use the same token.
+ * The request is performed once, in background, and its result handed to every requester, whether it comes
+ * from the generation dialog or from the background refresh, as long as they request the token in the same
+ * way: a request is only joined by coordinators with the same invoker configuration.
+ */
+public class TokenRequestCoordinator implements AuthTokenInvoker {
+
+    /**
+     * Identifies the requests that obtain the same token
+     */
+    public static final class RequestKey {
+        private final String domain, domainOwner, profile, region;
+
+        private RequestKey(String domain, String domainOwner, String profile, String region) {
+            this.domain = domain;
+            this.domainOwner = domainOwner;
+            this.profile = profile;
+            this.region = region;
+        }
+
+        String asText() {
+            return String.join("|", domain, domainOwner, String.valueOf(profile), String.valueOf(region));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof RequestKey other && domain.equals(other.domain) && domainOwner.equals(other.domainOwner)
+                    && Objects.equals(profile, other.profile) && Objects.equals(region, other.region);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(domain, domainOwner, profile, region);
+        }
+    }
+
+    /**
+     * A request in flight, that acts as controller for the underlying invocation: it is only cancelled
+     * once all its requesters are cancelled, and MFA codes are requested to any requester still waiting
+     */
+    private static class SharedRequest implements AWSInvoker.BackgroundController {
+        final CompletableFuture<AuthToken> result = new CompletableFuture<>();
+        private final List<AWSInvoker.BackgroundController> requesters = new ArrayList<>();
+        private final Set<Runnable> cancelListeners = new HashSet<>();
+        private boolean cancelled;
+
+        /**
+         * Adds a requester, returning false if the request is already cancelled
+         */
+        synchronized boolean join(AWSInvoker.BackgroundController requester) {
+            if (cancelled) {
+                return false;
+            }
+            requesters.add(requester);
+            return true;
+        }
+
+        void leave(AWSInvoker.BackgroundController requester) {
+            List<Runnable> notify;
+            synchronized (this) {
+                requesters.remove(requester);
+                if (!requesters.isEmpty() || cancelled || result.isDone()) {
+                    return;
+                }
+                cancelled = true;
+                notify = new ArrayList<>(cancelListeners);
+            }
+            notify.forEach(Runnable::run);
+        }
+
+        /**
+         * Waits for the result, returning null if the requester is cancelled meanwhile
+         */
+        AuthToken await(AWSInvoker.BackgroundController requester) throws OperationException {
+            CompletableFuture<AuthToken> own = new CompletableFuture<>();
+            result.whenComplete((token, ex) -> {
+                if (ex == null) {
+                    own.complete(token);
+                } else {
+                    own.completeExceptionally(ex);
+                }
+            });
+            Runnable cancelListener = () -> {
+                own.complete(null);
+                leave(requester);
+            };
+            requester.addCancelListener(cancelListener);
+            try {
+                return own.get();
+            } catch (InterruptedException ex) {
+                leave(requester);
+                return null;
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+                if (cause instanceof OperationException operationException) {
+                    // rethrown as is, timeouts and transient failures are handled differently
+                    throw operationException;
+                }
+                throw new OperationException("Error obtaining auth token: " + cause.getMessage());
+            } finally {
+                requester.removeCancelListener(cancelListener);
+            }
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public String requestMfaCode(String request) throws OperationException {
+            List<AWSInvoker.BackgroundController> candidates;
+            synchronized (this) {
+                candidates = new ArrayList<>(requesters);
+            }
+            // a requester could be unable to provide MFA codes (like the background refresh)
+            OperationException error = null;
+            for (AWSInvoker.BackgroundController candidate : candidates) {
+                if (!candidate.isCancelled()) {
+                    try {
+                        return candidate.requestMfaCode(request);
+                    } catch (OperationException ex) {
+                        error = ex;
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            return null;
+        }
+
+        @Override
+        public void addCancelListener(Runnable listener) {
+            synchronized (this) {
+                cancelListeners.add(listener);
+                if (!cancelled) {
+                    return;
+                }
+            }
+            listener.run();
+        }
+
+        @Override
+        public synchronized void removeCancelListener(Runnable listener) {
+            cancelListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Request in flight for the given invoker configuration
+     */
+    private record InFlightKey(String invokerConfiguration, RequestKey request) {
+    }
+
+    /**
+     * Application wide requests in flight
+     */
+    private static final Map<InFlightKey, SharedRequest> IN_FLIGHT = new HashMap<>();
+
+    private final AuthTokenInvoker invoker;
+    private final String invokerConfiguration;
+
+    /**
+     * @param invokerConfiguration describes how the invoker obtains the tokens (aws cli or native client,
+     *                             timeouts, shared cache...): only requests with the same description are merged
+     */
+    public TokenRequestCoordinator(AuthTokenInvoker invoker, String invokerConfiguration) {
+        this.invoker = invoker;
+        this.invokerConfiguration = invokerConfiguration;
+    }
+
+    public static RequestKey getRequestKey(String domain, String domainOwner, String awsProfile, String awsRegion) {
+        String region = awsRegion == null || awsRegion.isBlank() || awsRegion.equals(Configuration.DEFAULT_PROFILE_REGION)
+                ? null : awsRegion.trim();
+        return new RequestKey(domain.trim(), domainOwner.trim(), AWSInvoker.getProfile(awsProfile), region);
+    }
+
+    @Override
+    public AuthToken getAuthToken(String domain,
+                                  String domainOwner,
+                                  String awsProfile,
+                                  String awsRegion,
+                                  AWSInvoker.BackgroundController controller) throws OperationException {
+        InFlightKey key = new InFlightKey(invokerConfiguration,
+                getRequestKey(domain, domainOwner, awsProfile, awsRegion));
+        SharedRequest request;
+        synchronized (IN_FLIGHT) {
+            request = IN_FLIGHT.get(key);
+            if (request == null || !request.join(controller)) {
+                request = new SharedRequest();
+                request.join(controller);
+                start(key, request, domain, domainOwner, awsProfile, awsRegion);
+                IN_FLIGHT.put(key, request);
+            }
+        }
+        return request.await(controller);
+    }
+
+    private void start(InFlightKey key,
+                       SharedRequest request,
+                       String domain,
+                       String domainOwner,
+                       String awsProfile,
+                       String awsRegion) throws OperationException {
+        try {
+            PluginExecutor.getInstance().submit("token request", () -> {
+                try {
+                    AuthToken token = invoker.getAuthToken(domain, domainOwner, awsProfile, awsRegion, request);
+                    completed(key, request);
+                    request.result.complete(token);
+                } catch (OperationException | RuntimeException ex) {
+                    completed(key, request);
+                    request.result.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // plugin being unloaded
+            throw new OperationException("Auth token request rejected");
+        }
+    }
+
+    private static void completed(InFlightKey key, SharedRequest request) {
+        synchronized (IN_FLIGHT) {
+            IN_FLIGHT.remove(key, request);
+        }
+    }
+}
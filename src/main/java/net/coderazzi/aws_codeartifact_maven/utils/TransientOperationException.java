@@ -0,0 +1,42 @@
+package net.coderazzi.aws_codeartifact_maven.utils;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Failure that could succeed if the request is repeated later: throttling, service unavailable,
+ * network errors. Any other failure (access denied, missing domain, invalid credentials) is permanent.
+ * Timeouts are not transient: see TimeoutOperationException.
+ */
+public class TransientOperationException extends OperationException {
+
+    private static final List<String> TRANSIENT_ERRORS = List.of(
+            "throttl", "toomanyrequests", "rate exceeded", "requestlimitexceeded", "slowdown",
+            "serviceunavailable", "service unavailable", "internalserver", "internal server error",
+            "requesttimeout",
+            "could not connect to the endpoint", "connection was closed", "connection reset",
+            "connection refused", "connection aborted", "broken pipe", "name resolution",
+            "(500)", "(502)", "(503)", "(504)");
+
+    public TransientOperationException(String message) {
+        super(message);
+    }
+
+    /**
+     * Returns true if the given error output of the aws cli, or error message from AWS, denotes a transient failure
+     */
+    public static boolean isTransientError(String error) {
+        if (error == null) {
+            return false;
+        }
+        String lower = error.toLowerCase(Locale.ROOT);
+        return TRANSIENT_ERRORS.stream().anyMatch(lower::contains);
+    }
+
+    /**
+     * Returns the exception for the given error, transient or permanent as classified by its content
+     */
+    public static OperationException create(String error) {
+        return isTransientError(error) ? new TransientOperationException(error) : new OperationException(error);
+    }
+}